@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one message into an event, per event type: the {@code fromJson} variants of
+ * {@link PublisherEvent} against the {@link PublisherEventDecoder}, with and without reading the
+ * typed payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"Gesture", "Writing", "MouseEvent", "Activation", "WritingSegment", "Heartbeat"})
+    public String type;
+
+    private PublisherEvent.Type mType;
+    private String mJson;
+    private byte[] mBytes;
+    private JSONObject mObject;
+    private final PublisherEventDecoder mDecoder = new PublisherEventDecoder();
+
+    private final MouseEventListener mMoveSink = new MouseEventListener() {
+        @Override
+        public void onMouseMove(double dx, double dy, boolean palmVertical) {
+            mMoves++;
+        }
+    };
+    private long mMoves;
+
+    @Setup
+    public void setup() throws JSONException {
+        mType = PublisherEvent.Type.valueOf(type);
+        mJson = Messages.json(mType);
+        mBytes = Messages.bytes(mType);
+        mObject = new JSONObject(mJson);
+    }
+
+    /** The former path: parse a {@link JSONObject} and wrap it. */
+    @Benchmark
+    public PublisherEvent fromJsonString() throws JSONException {
+        return PublisherEvent.fromJson(mJson);
+    }
+
+    /** Wrapping an already parsed {@link JSONObject}. */
+    @Benchmark
+    public PublisherEvent fromJsonObject() throws JSONException {
+        return PublisherEvent.fromJson(mObject);
+    }
+
+    /** The former path including the typed payload. */
+    @Benchmark
+    public Object fromJsonTyped() throws JSONException {
+        return payload(PublisherEvent.fromJson(mJson));
+    }
+
+    @Benchmark
+    public PublisherEvent decodeString() throws JSONException {
+        return mDecoder.decode(mJson);
+    }
+
+    /** The receive path: decoding from the received bytes. */
+    @Benchmark
+    public PublisherEvent decodeBytes() throws JSONException {
+        return mDecoder.decode(mBytes, 0, mBytes.length);
+    }
+
+    @Benchmark
+    public Object decodeTyped() throws JSONException {
+        return payload(mDecoder.decode(mBytes, 0, mBytes.length));
+    }
+
+    /** The receive path with a {@link MouseEventListener}, moves do not create events. */
+    @Benchmark
+    public void decodeWithMoveListener(Blackhole bh) throws JSONException {
+        bh.consume(mDecoder.decode(mBytes, 0, mBytes.length, mMoveSink));
+        bh.consume(mMoves);
+    }
+
+    @Benchmark
+    public PublisherLog logFromJson() throws JSONException {
+        return PublisherLog.fromJson(Messages.log());
+    }
+
+    private Object payload(PublisherEvent event) throws JSONException {
+        switch (mType) {
+            case Gesture:
+                return event.asGesture();
+            case Writing:
+                return event.asWriting();
+            case MouseEvent:
+                return event.asMouseEvent();
+            case Activation:
+                return event.asActivation();
+            case WritingSegment:
+                return event.asWritingSegment();
+            case Heartbeat:
+                return event.asHeartbeat();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import static org.zeromq.ZSocket.UTF8;
+
+/**
+ * Sample messages of the Publisher for the benchmarks, one per event type, as sent on the wire.
+ */
+public final class Messages {
+
+    private Messages() {
+    }
+
+    /**
+     * A typical message of an event type.
+     * @param type the event type
+     * @return the json of the message
+     */
+    public static String json(PublisherEvent.Type type) {
+        switch (type) {
+            case Gesture:
+                return "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Swipe R\"}}";
+            case Writing:
+                return "{\"type\":\"Writing\",\"parameters\":{\"vocabulary\":\"en\",\"hypothesis\":\"hello world\",\"final\":true}}";
+            case MouseEvent:
+                return "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":1.2345678,\"dy\":-0.4567891,\"down\":false}}";
+            case Activation:
+                return "{\"type\":\"Activation\",\"parameters\":{\"active\":true}}";
+            case WritingSegment:
+                return "{\"type\":\"WritingSegment\",\"parameters\":{\"started\":true}}";
+            case Heartbeat:
+                return "{\"type\":\"Heartbeat\",\"parameters\":{\"active\":true,\"flags\":0,\"stream\":\"stream\",\"sensor\":\"sensor\",\"last\":1520000000}}";
+        }
+        throw new IllegalArgumentException("Unknown type " + type);
+    }
+
+    /**
+     * A typical message of an event type as UTF-8 bytes.
+     * @param type the event type
+     * @return the bytes of the message
+     */
+    public static byte[] bytes(PublisherEvent.Type type) {
+        return json(type).getBytes(UTF8);
+    }
+
+    /**
+     * A typical log message.
+     * @return the json of the log message
+     */
+    public static String log() {
+        return "{\"type\":\"Log\",\"parameters\":{\"who\":\"Publisher\",\"level\":\"info\",\"message\":\"sensor connected\",\"timestamp\":1520000000}}";
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.kinemic.toolbox.event.Messages;
+import de.kinemic.toolbox.event.MouseEventListener;
+import de.kinemic.toolbox.event.MouseMoveAccumulator;
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.zeromq.ZSocket.UTF8;
+
+/**
+ * Cost per message of the receive path after the socket: topic filter, decode, metrics, loss
+ * tracking and delivery of the batch, for a mix of mostly air mouse moves as sent while the
+ * mouse is used. Also the conflation of moves in a delivered batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    private static final int BATCH = 64;
+
+    /** Whether messages have a topic frame. */
+    @Param({"false", "true"})
+    public boolean topicFrames;
+
+    /** Whether moves go to a {@link MouseEventListener} instead of being delivered as events. */
+    @Param({"false", "true"})
+    public boolean moveListener;
+
+    private byte[][] mTopics;
+    private byte[][] mMessages;
+    private Blackhole mBlackhole;
+    private final MouseMoveAccumulator mAccumulator = new MouseMoveAccumulator();
+    private final List<PublisherEvent> mBatch = new ArrayList<>();
+    private final List<PublisherEvent> mConflated = new ArrayList<>();
+
+    private final EventReceiver mReceiver = new EventReceiver() {
+        @Override
+        void dispatchEvents(List<PublisherEvent> events) {
+            for (int i = 0; i < events.size(); ++i) {
+                mBlackhole.consume(events.get(i));
+            }
+        }
+
+        @Override
+        void dispatchLog(String level, String json) {
+            mBlackhole.consume(json);
+        }
+    };
+
+    @Setup
+    public void setup(Blackhole bh) throws JSONException {
+        mBlackhole = bh;
+        // every 8th message is not a move, heartbeats are filtered out
+        final PublisherEvent.Type[] others = {PublisherEvent.Type.Gesture, PublisherEvent.Type.Heartbeat,
+                PublisherEvent.Type.Activation, PublisherEvent.Type.Writing};
+        mTopics = new byte[BATCH][];
+        mMessages = new byte[BATCH][];
+        for (int i = 0; i < BATCH; ++i) {
+            final PublisherEvent.Type type = i % 8 == 7 ? others[(i / 8) % others.length] : PublisherEvent.Type.MouseEvent;
+            mTopics[i] = type.jsonType.getBytes(UTF8);
+            mMessages[i] = Messages.bytes(type);
+        }
+        mReceiver.applyTopics(new String[]{"Gesture", "Activation", "Writing", "MouseEvent"});
+        mReceiver.setMaxBatchSize(BATCH);
+        if (moveListener) {
+            mReceiver.setMouseEventListener(new MouseEventListener() {
+                @Override
+                public void onMouseMove(double dx, double dy, boolean palmVertical) {
+                    mAccumulator.add(dx, dy, palmVertical);
+                }
+            });
+        }
+        for (int i = 0; i < BATCH; ++i) {
+            mBatch.add(PublisherEvent.fromJson(new String(mMessages[i], UTF8)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void receive() {
+        final long now = System.nanoTime();
+        for (int i = 0; i < BATCH; ++i) {
+            final byte[] topic = topicFrames ? mTopics[i] : null;
+            final byte[] message = mMessages[i];
+            mReceiver.receiveEvent(topic, topic != null ? topic.length : 0, message, message.length, now);
+        }
+        mReceiver.flushBatch();
+        mAccumulator.reset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int conflate() {
+        mConflated.clear();
+        return mAccumulator.conflate(mBatch, mConflated);
+    }
+}
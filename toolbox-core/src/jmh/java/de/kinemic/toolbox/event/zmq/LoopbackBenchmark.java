@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.kinemic.toolbox.event.Messages;
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * The whole receive path through a real socket pair: a PUB socket sends the messages and the
+ * {@link EventReceiver} receives, decodes and delivers them from a SUB socket, like the listener
+ * does on its actor thread. Measures the throughput of bursts and the latency of single messages.
+ */
+@State(Scope.Thread)
+public class LoopbackBenchmark {
+    private static final int BURST = 64;
+
+    /** "tcp" for the loopback interface, "inproc" for the transport without the network stack. */
+    @Param({"tcp", "inproc"})
+    public String transport;
+
+    private ZContext mContext;
+    private ZMQ.Socket mPub;
+    private ZMQ.Socket mSub;
+    private byte[] mTopic;
+    private byte[] mMessage;
+    private Blackhole mBlackhole;
+    private int mDelivered;
+
+    private final EventReceiver mReceiver = new EventReceiver() {
+        @Override
+        void dispatchEvents(List<PublisherEvent> events) {
+            for (int i = 0; i < events.size(); ++i) {
+                mBlackhole.consume(events.get(i));
+            }
+            mDelivered += events.size();
+        }
+
+        @Override
+        void dispatchLog(String level, String json) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole bh) throws InterruptedException {
+        mBlackhole = bh;
+        mContext = new ZContext();
+        mPub = mContext.createSocket(ZMQ.PUB);
+        mSub = mContext.createSocket(ZMQ.SUB);
+        if ("inproc".equals(transport)) {
+            mPub.bind("inproc://loopback-benchmark");
+            mSub.connect("inproc://loopback-benchmark");
+        } else {
+            final int port = mPub.bindToRandomPort("tcp://127.0.0.1");
+            mSub.connect("tcp://127.0.0.1:" + port);
+        }
+        mSub.subscribe("".getBytes(ZMQ.CHARSET));
+        mTopic = PublisherEvent.Type.MouseEvent.jsonType.getBytes(ZMQ.CHARSET);
+        mMessage = Messages.bytes(PublisherEvent.Type.MouseEvent);
+        mReceiver.applyTopics(new String[]{""});
+        mReceiver.setMaxBatchSize(BURST);
+
+        // wait until the subscription reached the publisher, earlier messages are dropped
+        mSub.setReceiveTimeOut(10);
+        while (true) {
+            send();
+            if (mSub.recv() != null) break;
+        }
+        Thread.sleep(100);
+        while (mSub.recv(ZMQ.DONTWAIT) != null) {
+            // drain the probes
+        }
+        mSub.setReceiveTimeOut(-1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mContext.destroy();
+    }
+
+    private void send() {
+        mPub.send(mTopic, ZMQ.SNDMORE);
+        mPub.send(mMessage, 0);
+    }
+
+    /** Messages per time unit when the publisher sends bursts. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(BURST)
+    public void burst() {
+        for (int i = 0; i < BURST; ++i) {
+            send();
+        }
+        mDelivered = 0;
+        while (mDelivered < BURST) {
+            mReceiver.receiveEvents(mSub, 0);
+        }
+    }
+
+    /** Time from sending one message until its event is delivered. */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() {
+        send();
+        mDelivered = 0;
+        while (mDelivered < 1) {
+            mReceiver.receiveEvents(mSub, 0);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.kinemic.toolbox.event.Messages;
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * Handoff of events from the receiving thread to the delivering thread through the
+ * {@link EventQueue}, per policy: uncontended offer and poll, and a producer and a consumer thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class QueueBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({"BLOCK", "DROP_OLDEST", "DROP_NEWEST", "CONFLATE"})
+    public String policy;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private EventQueue mQueue;
+    private PublisherEvent[] mEvents;
+    // only used by the producer thread
+    private int mNext;
+
+    @Setup
+    public void setup() throws JSONException {
+        mQueue = new EventQueue(capacity, EventQueue.Policy.valueOf(policy));
+        // heartbeats are conflated by default
+        final PublisherEvent.Type[] types = {PublisherEvent.Type.MouseEvent, PublisherEvent.Type.MouseEvent,
+                PublisherEvent.Type.MouseEvent, PublisherEvent.Type.Heartbeat};
+        mEvents = new PublisherEvent[BATCH];
+        for (int i = 0; i < BATCH; ++i) {
+            mEvents[i] = PublisherEvent.fromJson(Messages.json(types[i % types.length]));
+        }
+    }
+
+    /** Offer a batch and poll it, on one thread. */
+    @Benchmark
+    @Group("single")
+    @OperationsPerInvocation(BATCH)
+    public int offerPoll() {
+        int polled = 0;
+        for (int i = 0; i < BATCH; ++i) {
+            mQueue.offer(mEvents[i]);
+        }
+        while (mQueue.poll() != null) ++polled;
+        return polled;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public boolean offer() {
+        return mQueue.offer(mEvents[mNext++ & (BATCH - 1)]);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public PublisherEvent poll() {
+        return mQueue.poll();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Registry which maps gesture names to small integer ids.
+ * The known gestures ({@link PublisherEvent#GESTURE_SWIPE_R}, ...) have the constant ids below,
+ * unknown gesture names get the next free id the first time they are seen.
+ * Use the ids to dispatch gestures with a switch or as an array index instead of comparing names.
+ *
+ * Lookups are lock free, registering a new name is synchronized.
+ */
+public final class GestureId {
+    /** Id for names which could not be registered. */
+    public static final int UNKNOWN = -1;
+
+    public static final int ROTATE_RL = 0;
+    public static final int ROTATE_LR = 1;
+    public static final int ROTATE_R = 2;
+    public static final int ROTATE_L = 3;
+    public static final int CIRCLE_R = 4;
+    public static final int CIRCLE_L = 5;
+    public static final int SWIPE_R = 6;
+    public static final int SWIPE_L = 7;
+    public static final int SWIPE_UP = 8;
+    public static final int SWIPE_DOWN = 9;
+    public static final int WIRL_R = 10;
+    public static final int WIRL_L = 11;
+    public static final int EARTOUCH_R = 12;
+    public static final int EARTOUCH_L = 13;
+    public static final int CHESTTOUCH = 14;
+    public static final int CHECK_MARK = 15;
+    public static final int X_MARK = 16;
+    public static final int TAP = 17;
+    public static final int DOUBLE_TAP = 18;
+
+    /** Maximum number of registered names, protects against unbounded growth from bad input. */
+    public static final int MAX_GESTURES = 256;
+
+    /* index is the id, replaced (copy on write) when a name is registered */
+    private static volatile String[] sNames = {
+            PublisherEvent.GESTURE_ROTATE_RL,
+            PublisherEvent.GESTURE_ROTATE_LR,
+            PublisherEvent.GESTURE_ROTATE_R,
+            PublisherEvent.GESTURE_ROTATE_L,
+            PublisherEvent.GESTURE_CIRCLE_R,
+            PublisherEvent.GESTURE_CIRCLE_L,
+            PublisherEvent.GESTURE_SWIPE_R,
+            PublisherEvent.GESTURE_SWIPE_L,
+            PublisherEvent.GESTURE_SWIPE_UP,
+            PublisherEvent.GESTURE_SWIPE_DOWN,
+            PublisherEvent.GESTURE_WIRL_R,
+            PublisherEvent.GESTURE_WIRL_L,
+            PublisherEvent.GESTURE_EARTOUCHL_R,
+            PublisherEvent.GESTURE_EARTOUCH_L,
+            PublisherEvent.GESTURE_CHESTTOUCH,
+            PublisherEvent.GESTURE_CHECK_MARK,
+            PublisherEvent.GESTURE_X_MARK,
+            PublisherEvent.GESTURE_TAP,
+            PublisherEvent.GESTURE_DOUBLE_TAP,
+    };
+
+    private GestureId() {
+    }
+
+    /**
+     * Get the id of a gesture name, registering the name if it is not known yet.
+     * @param name gesture name like "Swipe R"
+     * @return the id of the gesture or {@link #UNKNOWN} if {@link #MAX_GESTURES} are registered
+     */
+    public static int of(@NonNull String name) {
+        final int id = find(name);
+        if (id != UNKNOWN) return id;
+        return register(name);
+    }
+
+    /**
+     * Get the id of a gesture name without registering it.
+     * @param name gesture name like "Swipe R"
+     * @return the id of the gesture or {@link #UNKNOWN} if the name is not registered
+     */
+    public static int find(@NonNull String name) {
+        final String[] names = sNames;
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) return i;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Get the name of a gesture id.
+     * @param id the gesture id
+     * @return the registered name or null if the id is not registered
+     */
+    public static @Nullable String nameOf(int id) {
+        final String[] names = sNames;
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    /**
+     * Number of registered gestures, all ids are smaller than this.
+     * Can be used to size arrays indexed by gesture id.
+     * @return number of registered gestures
+     */
+    public static int count() {
+        return sNames.length;
+    }
+
+    /* the current names, the index is the id, used by the decoder to match names without a string */
+    static String[] names() {
+        return sNames;
+    }
+
+    private static synchronized int register(String name) {
+        final String[] names = sNames;
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) return i;
+        }
+        if (names.length >= MAX_GESTURES) return UNKNOWN;
+
+        final String[] updated = Arrays.copyOf(names, names.length + 1);
+        updated[names.length] = name;
+        sNames = updated;
+        return names.length;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+/**
+ * Listener for air mouse movements as primitive values.
+ * Use it for high frequency mouse streams, no {@link PublisherEvent} or
+ * {@link PublisherEvent.MouseEvent} is created for a move.
+ * Toggle events are still delivered as regular {@link PublisherEvent}s.
+ */
+public interface MouseEventListener {
+
+    /**
+     * Called for every air mouse move.
+     * @param dx movement in x direction as delta
+     * @param dy movement in y direction as delta
+     * @param palmVertical whether the hand is currently in a vertical rotated position
+     */
+    void onMouseMove(double dx, double dy, boolean palmVertical);
+}
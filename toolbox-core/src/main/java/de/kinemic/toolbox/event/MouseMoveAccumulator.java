@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+
+import java.util.List;
+
+/**
+ * Merges consecutive air mouse moves into a single synthetic move.
+ * The deltas are summed up and the latest palmVertical is kept, so the cursor ends up at the same
+ * position as if every move was replayed. Not thread safe.
+ */
+public final class MouseMoveAccumulator {
+    private double mDx;
+    private double mDy;
+    private boolean mPalmVertical;
+    private int mCount;
+    // source of the moves merged by conflate
+    private String mSource;
+    // stamps of the earliest stamped move, 0 for none
+    private long mReceivedNanos;
+    private long mDecodedNanos;
+
+    /**
+     * Add a move.
+     * @param dx movement in x direction as delta
+     * @param dy movement in y direction as delta
+     * @param palmVertical whether the hand is currently in a vertical rotated position
+     */
+    public void add(double dx, double dy, boolean palmVertical) {
+        mDx += dx;
+        mDy += dy;
+        mPalmVertical = palmVertical;
+        ++mCount;
+    }
+
+    /* keeps the stamps of the earliest move, so a merged move reports the latency of its oldest part */
+    void addStamps(PublisherEvent event) {
+        final long received = event.getReceivedNanos();
+        if (received != 0 && (mReceivedNanos == 0 || received - mReceivedNanos < 0)) {
+            mReceivedNanos = received;
+            mDecodedNanos = event.getDecodedNanos();
+        }
+    }
+
+    /**
+     * Number of moves added since the last reset.
+     * @return number of accumulated moves
+     */
+    public int count() {
+        return mCount;
+    }
+
+    /**
+     * Whether no moves were added since the last reset.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /** Summed up movement in x direction. */
+    public double getDx() {
+        return mDx;
+    }
+
+    /** Summed up movement in y direction. */
+    public double getDy() {
+        return mDy;
+    }
+
+    /** The palmVertical of the latest move. */
+    public boolean isPalmVertical() {
+        return mPalmVertical;
+    }
+
+    /**
+     * Create a move event with the accumulated deltas.
+     * The event carries the receive and decode time of the earliest stamped move, if any.
+     * @return a synthetic {@link PublisherEvent.Type#MouseEvent} move
+     */
+    public @NonNull PublisherEvent toEvent() {
+        final PublisherEvent event = new PublisherEvent(PublisherEvent.Type.MouseEvent,
+                new PublisherEvent.MouseEvent(PublisherEvent.MouseEvent.Type.Move, mDx, mDy, mPalmVertical),
+                PublisherEventDecoder.MOVE_FIELDS, null, -1, -1);
+        event.mReceivedNanos = mReceivedNanos;
+        event.mDecodedNanos = mDecodedNanos;
+        return event;
+    }
+
+    /**
+     * Clear the accumulated moves.
+     */
+    public void reset() {
+        mDx = 0.0;
+        mDy = 0.0;
+        mPalmVertical = false;
+        mCount = 0;
+        mReceivedNanos = 0;
+        mDecodedNanos = 0;
+    }
+
+    /**
+     * Copy events and merge each run of consecutive moves into one move.
+     * Runs are never merged across other events (toggles, gestures, activations, ...) or moves of
+     * another publisher (see {@link PublisherEvent#getSource()}), so the order of all events is kept.
+     * @param events the events in order
+     * @param out receives the merged events
+     * @return number of moves which were merged away
+     */
+    public int conflate(@NonNull List<PublisherEvent> events, @NonNull List<PublisherEvent> out) {
+        reset();
+        int merged = 0;
+        PublisherEvent single = null;
+        for (int i = 0; i < events.size(); ++i) {
+            final PublisherEvent event = events.get(i);
+            final PublisherEvent.MouseEvent move = asMove(event);
+            if (move != null) {
+                if (mCount > 0 && !sameSource(event.getSource(), mSource)) {
+                    merged += flush(single, out);
+                }
+                add(move.dx, move.dy, move.palmVertical);
+                addStamps(event);
+                if (mCount == 1) {
+                    single = event;
+                    mSource = event.getSource();
+                }
+                continue;
+            }
+            merged += flush(single, out);
+            out.add(event);
+        }
+        merged += flush(single, out);
+        return merged;
+    }
+
+    private int flush(PublisherEvent single, List<PublisherEvent> out) {
+        final int count = mCount;
+        if (count == 1) {
+            // nothing to merge, keep the original event
+            out.add(single);
+        } else if (count > 1) {
+            final PublisherEvent event = toEvent();
+            event.mSourceName = mSource;
+            out.add(event);
+        }
+        reset();
+        return count > 1 ? count - 1 : 0;
+    }
+
+    private static boolean sameSource(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static PublisherEvent.MouseEvent asMove(PublisherEvent event) {
+        if (event.type != PublisherEvent.Type.MouseEvent) return null;
+        try {
+            final PublisherEvent.MouseEvent mouse = event.asMouseEvent();
+            return mouse.type == PublisherEvent.MouseEvent.Type.Move ? mouse : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
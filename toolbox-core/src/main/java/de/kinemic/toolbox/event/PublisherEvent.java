@@ -17,6 +17,7 @@
 package de.kinemic.toolbox.event;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -74,7 +75,7 @@ public class PublisherEvent {
         }
     }
 
-    private static final Map<String, Type> sTypeMap;
+    static final Map<String, Type> sTypeMap;
     static {
         Map<String, Type> aMap = new HashMap<>();
         aMap.put("Gesture", Type.Gesture);
@@ -92,14 +93,100 @@ public class PublisherEvent {
      */
     public final Type type;
 
-    /**
-     * Parameters of the event as a json object.
-     */
-    public final JSONObject parameters;
+    /* parameters as json object, created lazily for events read by the PublisherEventDecoder */
+    private JSONObject mParameters;
+
+    /* the typed payload (Gesture, Writing, ...) if it was filled by the PublisherEventDecoder */
+    private final Object mPayload;
+    private final int mPayloadFields;
+
+    /* the source json and the range of the parameters object in it, null if not available */
+    private final String mSource;
+    private final int mParametersStart;
+    private final int mParametersEnd;
+
+    /* System.nanoTime() stamps set by the PublisherEventDecoder, 0 if not stamped */
+    long mReceivedNanos;
+    long mDecodedNanos;
+    /* optional sequence number of the publisher */
+    long mSequence = -1;
+    /* the publisher the event was received from, null if not tagged */
+    String mSourceName;
 
     private PublisherEvent(Type type, JSONObject parameters) {
         this.type = type;
-        this.parameters = parameters;
+        this.mParameters = parameters;
+        this.mPayload = null;
+        this.mPayloadFields = 0;
+        this.mSource = null;
+        this.mParametersStart = -1;
+        this.mParametersEnd = -1;
+    }
+
+    /* used by the PublisherEventDecoder */
+    PublisherEvent(Type type, Object payload, int payloadFields, String source, int parametersStart, int parametersEnd) {
+        this.type = type;
+        this.mPayload = payload;
+        this.mPayloadFields = payloadFields;
+        this.mSource = source;
+        this.mParametersStart = parametersStart;
+        this.mParametersEnd = parametersEnd;
+    }
+
+    /**
+     * Time the message of this event was received, see {@link PublisherEventDecoder#setReceivedNanos(long)}.
+     * @return {@link System#nanoTime()} of the receive or 0 if the event was not stamped
+     */
+    public long getReceivedNanos() {
+        return mReceivedNanos;
+    }
+
+    /**
+     * Time this event was decoded, only set if the event has a {@link #getReceivedNanos()}.
+     * @return {@link System#nanoTime()} after decoding (the receive time for replayed events)
+     *         or 0 if the event was not stamped
+     */
+    public long getDecodedNanos() {
+        return mDecodedNanos;
+    }
+
+    /**
+     * Sequence number of this event, if the Publisher numbers its messages ("seq").
+     * Consecutive messages have consecutive numbers, a gap means messages were lost.
+     * @return the sequence number or -1 if the event has none
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * The publisher this event was received from, see {@link PublisherEventDecoder#setSource(String)}.
+     * Listeners tag events with the address of their publisher or the name of a
+     * {@link de.kinemic.toolbox.event.zmq.PublisherSource}.
+     * @return the name of the publisher or null if the event was not tagged
+     */
+    public @Nullable String getSource() {
+        return mSourceName;
+    }
+
+    /**
+     * Parameters of the event as a json object.
+     * For events parsed from a json string the object is only created on the first call.
+     * @return the parameters of this event
+     * @throws JSONException if the parameters could not be parsed.
+     */
+    public JSONObject getParameters() throws JSONException {
+        if (mParameters == null) {
+            if (mSource != null) {
+                // keep the behaviour of the former fromJson(String), which replaced all nulls
+                mParameters = new JSONObject(mSource.substring(mParametersStart, mParametersEnd).replace("null", "{}"));
+            } else if (mPayload != null) {
+                mParameters = PublisherEventDecoder.parametersOf(mPayload, mPayloadFields);
+            } else {
+                mParameters = new JSONObject();
+            }
+        }
+        return mParameters;
     }
 
     /**
@@ -120,13 +207,15 @@ public class PublisherEvent {
 
     /**
      * Parse a event from json string.
+     * The string is read in a single pass by a {@link PublisherEventDecoder}, use your own
+     * decoder instance to avoid its allocation for every event.
      * @param json json string
      * @return the parsed json as {@link PublisherEvent}
      * @throws JSONException if the json object could not be parsed.
      */
     public static @NonNull
     PublisherEvent fromJson(@NonNull String json) throws JSONException {
-        return fromJson(new JSONObject(json.replace("null", "{}")));
+        return new PublisherEventDecoder().decode(json);
     }
 
     /**
@@ -137,7 +226,7 @@ public class PublisherEvent {
     public JSONObject toJson() throws JSONException {
         return new JSONObject()
                 .put("type", type.jsonType)
-                .put("parameters", parameters);
+                .put("parameters", getParameters());
     }
 
     /**
@@ -146,6 +235,7 @@ public class PublisherEvent {
      * @throws JSONException if this instance is not a valid {@link Gesture}.
      */
     public Gesture asGesture() throws JSONException {
+        if (mPayload instanceof Gesture) return (Gesture) mPayload;
         return Gesture.from(this);
     }
 
@@ -155,6 +245,7 @@ public class PublisherEvent {
      * @throws JSONException if this instance is not a valid {@link Writing}.
      */
     public Writing asWriting() throws JSONException {
+        if (mPayload instanceof Writing) return (Writing) mPayload;
         return Writing.from(this);
     }
 
@@ -164,6 +255,7 @@ public class PublisherEvent {
      * @throws JSONException if this instance is not a valid {@link WritingSegment}.
      */
     public WritingSegment asWritingSegment() throws JSONException {
+        if (mPayload instanceof WritingSegment) return (WritingSegment) mPayload;
         return WritingSegment.from(this);
     }
 
@@ -173,6 +265,7 @@ public class PublisherEvent {
      * @throws JSONException if this instance is not a valid {@link Activation}.
      */
     public Activation asActivation() throws JSONException {
+        if (mPayload instanceof Activation) return (Activation) mPayload;
         return Activation.from(this);
     }
 
@@ -182,6 +275,7 @@ public class PublisherEvent {
      * @throws JSONException if this instance is not a valid {@link Heartbeat}.
      */
     public Heartbeat asHeartbeat() throws JSONException {
+        if (mPayload instanceof Heartbeat) return (Heartbeat) mPayload;
         return Heartbeat.from(this);
     }
 
@@ -191,6 +285,7 @@ public class PublisherEvent {
      * @throws JSONException if this instance is not a valid {@link MouseEvent}.
      */
     public MouseEvent asMouseEvent() throws JSONException {
+        if (mPayload instanceof MouseEvent) return (MouseEvent) mPayload;
         return MouseEvent.from(this);
     }
 
@@ -200,13 +295,17 @@ public class PublisherEvent {
     public static class Gesture {
         /** The name of the gesture */
         public final String name;
+        /** The id of the gesture, see {@link GestureId} */
+        public final int id;
 
-        private Gesture(String name) {
+        Gesture(int id, String name) {
+            this.id = id;
             this.name = name;
         }
 
         private static Gesture from(PublisherEvent base) throws JSONException {
-            return new Gesture(base.parameters.getString("name"));
+            final String name = base.getParameters().getString("name");
+            return new Gesture(GestureId.of(name), name);
         }
     }
 
@@ -221,7 +320,7 @@ public class PublisherEvent {
         /** Whether the hypothesis is the final one for the segment (the segment has ended). */
         public final boolean isFinal;
 
-        private Writing(String vocabulary, String hypothesis, boolean isFinal) {
+        Writing(String vocabulary, String hypothesis, boolean isFinal) {
             this.vocabulary = vocabulary;
             this.hypothesis = hypothesis;
             this.isFinal = isFinal;
@@ -229,9 +328,9 @@ public class PublisherEvent {
 
         private static Writing from(PublisherEvent base) throws JSONException {
             return new Writing(
-                    base.parameters.getString("vocabulary"),
-                    base.parameters.getString("hypothesis"),
-                    base.parameters.getBoolean("final"));
+                    base.getParameters().getString("vocabulary"),
+                    base.getParameters().getString("hypothesis"),
+                    base.getParameters().getBoolean("final"));
         }
     }
 
@@ -242,13 +341,13 @@ public class PublisherEvent {
         /** Whether the segment has ended or started */
         public final boolean started;
 
-        private WritingSegment(boolean started) {
+        WritingSegment(boolean started) {
             this.started = started;
         }
 
         private static WritingSegment from(PublisherEvent base) throws JSONException {
             return new WritingSegment(
-                    base.parameters.getBoolean("started"));
+                    base.getParameters().getBoolean("started"));
         }
     }
 
@@ -259,12 +358,12 @@ public class PublisherEvent {
         /** Whether the state changed to active or inactive */
         public final boolean active;
 
-        private Activation(boolean active) {
+        Activation(boolean active) {
             this.active = active;
         }
 
         private static Activation from(PublisherEvent base) throws JSONException {
-            return new Activation(base.parameters.getBoolean("active"));
+            return new Activation(base.getParameters().getBoolean("active"));
         }
     }
 
@@ -283,7 +382,7 @@ public class PublisherEvent {
         /** The time in seconds since the last sensor message */
         public final long last;
 
-        private Heartbeat(boolean active, int flags, String stream, String sensor, long last) {
+        Heartbeat(boolean active, int flags, String stream, String sensor, long last) {
             this.active = active;
             this.flags = flags;
             this.stream = stream;
@@ -293,11 +392,11 @@ public class PublisherEvent {
 
         private static Heartbeat from(PublisherEvent base) throws JSONException {
             return new Heartbeat(
-                    base.parameters.getBoolean("active"),
-                    base.parameters.getInt("flags"),
-                    base.parameters.getString("stream"),
-                    base.parameters.getString("sensor"),
-                    base.parameters.getLong("last"));
+                    base.getParameters().getBoolean("active"),
+                    base.getParameters().getInt("flags"),
+                    base.getParameters().getString("stream"),
+                    base.getParameters().getString("sensor"),
+                    base.getParameters().getLong("last"));
         }
     }
 
@@ -336,11 +435,11 @@ public class PublisherEvent {
         }
 
         private static MouseEvent from(PublisherEvent base) throws JSONException {
-            if (!base.parameters.has("type")) return new MouseEvent(Type.Toggle, 0.0, 0.0, false);
+            if (!base.getParameters().has("type")) return new MouseEvent(Type.Toggle, 0.0, 0.0, false);
 
-            String type_s = base.parameters.getString("type");
+            String type_s = base.getParameters().getString("type");
             if ("move".equals(type_s)) {
-                return new MouseEvent(Type.Move, base.parameters.getDouble("dx"), base.parameters.getDouble("dy"), base.parameters.getBoolean("down"));
+                return new MouseEvent(Type.Move, base.getParameters().getDouble("dx"), base.getParameters().getDouble("dy"), base.getParameters().getBoolean("down"));
             } else if ("toggle".equals(type_s)) {
                 return new MouseEvent(Type.Toggle, 0.0, 0.0, false);
             } else {
@@ -0,0 +1,835 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+
+/**
+ * Streaming decoder for publisher events.
+ * Reads the "type" and "parameters" of an event json in a single pass and fills the typed
+ * payload ({@link PublisherEvent.Gesture}, {@link PublisherEvent.MouseEvent}, ...) directly,
+ * without creating a {@link JSONObject}. "null" parameters are treated as empty.
+ * Events can be decoded from a string or directly from utf-8 bytes.
+ *
+ * The results are the same as with the former json object based parsing, parameters with an
+ * unusual representation (i.e. numbers as strings) fall back to it when the payload is requested.
+ *
+ * A decoder keeps scratch state between calls and must not be shared between threads.
+ */
+public final class PublisherEventDecoder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] TYPE_NAMES = {
+            "Gesture", "Writing", "MouseEvent", "MouseToggle", "Activation", "WritingSegment", "Heartbeat"
+    };
+    private static final PublisherEvent.Type[] TYPE_VALUES = {
+            PublisherEvent.Type.Gesture, PublisherEvent.Type.Writing, PublisherEvent.Type.MouseEvent,
+            PublisherEvent.Type.MouseEvent, PublisherEvent.Type.Activation,
+            PublisherEvent.Type.WritingSegment, PublisherEvent.Type.Heartbeat
+    };
+
+    private static final int KIND_STRING = 0;
+    private static final int KIND_BOOLEAN = 1;
+    private static final int KIND_NUMBER = 2;
+
+    /* known parameter keys, index in this array is the bit in mFields */
+    private static final String[] PARAM_KEYS = {
+            "name", "vocabulary", "hypothesis", "final", "started", "active", "flags", "stream",
+            "sensor", "last", "type", "dx", "dy", "down"
+    };
+    private static final int[] PARAM_KINDS = {
+            KIND_STRING, KIND_STRING, KIND_STRING, KIND_BOOLEAN, KIND_BOOLEAN, KIND_BOOLEAN, KIND_NUMBER, KIND_STRING,
+            KIND_STRING, KIND_NUMBER, KIND_STRING, KIND_NUMBER, KIND_NUMBER, KIND_BOOLEAN
+    };
+
+    private static final int P_NAME = 0;
+    private static final int P_VOCABULARY = 1;
+    private static final int P_HYPOTHESIS = 2;
+    private static final int P_FINAL = 3;
+    private static final int P_STARTED = 4;
+    private static final int P_ACTIVE = 5;
+    private static final int P_FLAGS = 6;
+    private static final int P_STREAM = 7;
+    private static final int P_SENSOR = 8;
+    private static final int P_LAST = 9;
+    private static final int P_TYPE = 10;
+    private static final int P_DX = 11;
+    private static final int P_DY = 12;
+    private static final int P_DOWN = 13;
+
+    /* parameter keys of an air mouse move, used for synthetic moves */
+    static final int MOVE_FIELDS = (1 << P_TYPE) | (1 << P_DX) | (1 << P_DY) | (1 << P_DOWN);
+
+    private static final int MOUSE_MOVE = 0;
+    private static final int MOUSE_TOGGLE = 1;
+    private static final int MOUSE_OTHER = 2;
+
+    private static final int KEY_UNKNOWN = -1;
+    private static final int KEY_TYPE = -2;
+    private static final int KEY_PARAMETERS = -3;
+    private static final int KEY_SEQUENCE = -4;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // stamp for the decoded events, 0 for none
+    private long mReceivedNanos;
+    // fixed decode time of the stamped events, 0 to take the time decoding finished
+    private long mDecodedNanos;
+    // "seq" of the last decoded event, -1 for none
+    private long mSequence = -1;
+    // tag for the decoded events, null for none
+    private String mSource;
+
+    // input, either a string or utf-8 bytes
+    private String mText;
+    private byte[] mBytes;
+    private int mPos;
+    private int mEnd;
+
+    // scratch state of the current event
+    private PublisherEvent.Type mType;
+    private int mParametersStart;
+    private int mParametersEnd;
+    private boolean mHasParameters;
+    private int mFields;
+    private boolean mFallback;
+    private boolean mUnknownKeys;
+    private int mMouseType;
+    private int mGestureId;
+    private final String[] mStrings = new String[PARAM_KEYS.length];
+    private final boolean[] mBooleans = new boolean[PARAM_KEYS.length];
+    private final double[] mDoubles = new double[PARAM_KEYS.length];
+    private final long[] mLongs = new long[PARAM_KEYS.length];
+    private final int[] mInts = new int[PARAM_KEYS.length];
+
+    // result of the last readNumber(), mNumberIsLong if the literal was an integer
+    private double mNumberDouble;
+    private long mNumberLong;
+    private boolean mNumberIsLong;
+
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    /**
+     * Decode an event from a json string.
+     * @param json json string like {"type": "Gesture", "parameters": {"name": "Swipe R"}}
+     * @return the decoded {@link PublisherEvent}
+     * @throws JSONException if the json string could not be parsed or has an unexpected type.
+     */
+    public @NonNull PublisherEvent decode(@NonNull String json) throws JSONException {
+        mText = json;
+        mPos = 0;
+        mEnd = json.length();
+        try {
+            readEvent();
+            final Object payload = buildPayload();
+            return stamp(new PublisherEvent(mType, payload, mFields,
+                    mParametersStart < 0 ? null : mText, mParametersStart, mParametersEnd));
+        } finally {
+            mText = null;
+            for (int i = 0; i < mStrings.length; ++i) mStrings[i] = null;
+        }
+    }
+
+    /**
+     * Set the receive time of the next decoded events. Events are stamped with it and with the time
+     * decoding finished, see {@link PublisherEvent#getReceivedNanos()}.
+     * @param receivedNanos {@link System#nanoTime()} when the message was received, 0 to not stamp events
+     */
+    public void setReceivedNanos(long receivedNanos) {
+        mReceivedNanos = receivedNanos;
+    }
+
+    /**
+     * Set a fixed decode time for the next stamped events, i.e. the time of a replay clock, so
+     * both stamps come from the same clock. See {@link PublisherEvent#getDecodedNanos()}.
+     * @param decodedNanos the decode time or 0 to take {@link System#nanoTime()} when decoding finished
+     */
+    public void setDecodedNanos(long decodedNanos) {
+        mDecodedNanos = decodedNanos;
+    }
+
+    /**
+     * Set the publisher the next decoded events are received from, see {@link PublisherEvent#getSource()}.
+     * @param source name of the publisher or null to not tag events
+     */
+    public void setSource(@Nullable String source) {
+        mSource = source;
+    }
+
+    /**
+     * Decode an event from utf-8 encoded json, i.e. directly from a received zmq frame.
+     * The bytes are not referenced by the returned event, so the buffer can be reused.
+     * @param data buffer containing the json
+     * @param offset start of the json in the buffer
+     * @param length length of the json in bytes
+     * @return the decoded {@link PublisherEvent}
+     * @throws JSONException if the json could not be parsed or has an unexpected type.
+     */
+    public @NonNull PublisherEvent decode(@NonNull byte[] data, int offset, int length) throws JSONException {
+        //noinspection ConstantConditions
+        return decode(data, offset, length, null);
+    }
+
+    /**
+     * Decode an event from utf-8 encoded json, passing air mouse moves to a {@link MouseEventListener}.
+     * Move events are reported as primitives, neither a {@link PublisherEvent} nor any other object
+     * is created for them.
+     * @param data buffer containing the json
+     * @param offset start of the json in the buffer
+     * @param length length of the json in bytes
+     * @param moveListener listener for move events, if null all events are returned
+     * @return the decoded {@link PublisherEvent} or null if the event was passed to the moveListener
+     * @throws JSONException if the json could not be parsed or has an unexpected type.
+     */
+    public @Nullable PublisherEvent decode(@NonNull byte[] data, int offset, int length,
+                                           @Nullable MouseEventListener moveListener) throws JSONException {
+        mBytes = data;
+        mPos = offset;
+        mEnd = offset + length;
+        try {
+            readEvent();
+            if (moveListener != null && isCompleteMove()) {
+                moveListener.onMouseMove(mDoubles[P_DX], mDoubles[P_DY], mBooleans[P_DOWN]);
+                return null;
+            }
+            final Object payload = buildPayload();
+            if (mParametersStart < 0 || (payload != null && canRebuild(payload))) {
+                return stamp(new PublisherEvent(mType, payload, mFields, null, -1, -1));
+            }
+            // the buffer will be reused, keep a copy of the parameters for getParameters()
+            final String parameters = region(mParametersStart, mParametersEnd);
+            return stamp(new PublisherEvent(mType, payload, mFields, parameters, 0, parameters.length()));
+        } finally {
+            mBytes = null;
+            for (int i = 0; i < mStrings.length; ++i) mStrings[i] = null;
+        }
+    }
+
+    /**
+     * Sequence number of the last decoded event, also of moves passed to a {@link MouseEventListener}.
+     * @return the optional "seq" value of the event or -1 if it has none
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    private PublisherEvent stamp(PublisherEvent event) {
+        event.mSequence = mSequence;
+        event.mSourceName = mSource;
+        if (mReceivedNanos != 0) {
+            event.mReceivedNanos = mReceivedNanos;
+            event.mDecodedNanos = mDecodedNanos != 0 ? mDecodedNanos : System.nanoTime();
+        }
+        return event;
+    }
+
+    private void readEvent() throws JSONException {
+        mType = null;
+        mHasParameters = false;
+        mParametersStart = -1;
+        mParametersEnd = -1;
+        mFields = 0;
+        mFallback = false;
+        mUnknownKeys = false;
+        mSequence = -1;
+
+        expect('{');
+        if (peek() == '}') {
+            ++mPos;
+        } else {
+            while (true) {
+                final int key = readTopLevelKey();
+                expect(':');
+                switch (key) {
+                    case KEY_TYPE:
+                        readType();
+                        break;
+                    case KEY_PARAMETERS:
+                        readParameters();
+                        break;
+                    case KEY_SEQUENCE:
+                        readSequence();
+                        break;
+                    default:
+                        skipValue();
+                }
+                final char c = next();
+                if (c == '}') break;
+                if (c != ',') throw syntaxError("Expected ',' or '}'");
+            }
+        }
+
+        if (mType == null) throw new JSONException("No value for type");
+        if (!mHasParameters) throw new JSONException("No value for parameters");
+    }
+
+    /* optional sequence number of the publisher, only non negative integers are used */
+    private void readSequence() throws JSONException {
+        final char c = peek();
+        if (c != '-' && !isDigit(c)) {
+            skipValue();
+        } else if (readNumber() && mNumberIsLong && mNumberLong >= 0) {
+            mSequence = mNumberLong;
+        }
+    }
+
+    private void readType() throws JSONException {
+        if (peek() != '"') throw new JSONException("Unexpected type: " + readLiteral());
+        final int start = mPos + 1;
+        final int end = skipString();
+        if (end == mPos - 1) {
+            // no escapes, match the raw characters
+            for (int i = 0; i < TYPE_NAMES.length; ++i) {
+                if (regionEquals(start, end, TYPE_NAMES[i])) {
+                    mType = TYPE_VALUES[i];
+                    return;
+                }
+            }
+        }
+        final String type_s = decodeString(start, end);
+        final PublisherEvent.Type type = PublisherEvent.sTypeMap.get(type_s);
+        if (type == null) throw new JSONException("Unexpected type: " + type_s);
+        mType = type;
+    }
+
+    private void readParameters() throws JSONException {
+        mHasParameters = true;
+        mFields = 0;
+        mFallback = false;
+        mUnknownKeys = false;
+        mParametersStart = -1;
+        mParametersEnd = -1;
+
+        final char first = peek();
+        if (first == 'n') {
+            readKeyword("null");
+            return;
+        }
+        if (first != '{') throw new JSONException("Value at parameters is not a JSONObject");
+
+        mParametersStart = mPos;
+        ++mPos;
+        if (peek() == '}') {
+            ++mPos;
+        } else {
+            while (true) {
+                final int key = readParameterKey();
+                expect(':');
+                if (key == KEY_UNKNOWN) {
+                    mUnknownKeys = true;
+                    skipValue();
+                } else {
+                    readParameterValue(key);
+                }
+                final char c = next();
+                if (c == '}') break;
+                if (c != ',') throw syntaxError("Expected ',' or '}'");
+            }
+        }
+        mParametersEnd = mPos;
+    }
+
+    private void readParameterValue(int key) throws JSONException {
+        final char c = peek();
+        switch (PARAM_KINDS[key]) {
+            case KIND_STRING:
+                if (c == '"') {
+                    final int start = mPos + 1;
+                    final int end = skipString();
+                    if (key == P_TYPE) {
+                        // the mouse event type is matched without creating a string
+                        mMouseType = regionEquals(start, end, "move") ? MOUSE_MOVE
+                                : regionEquals(start, end, "toggle") ? MOUSE_TOGGLE : MOUSE_OTHER;
+                    } else if (key == P_NAME) {
+                        readGestureName(start, end);
+                    } else {
+                        mStrings[key] = decodeString(start, end);
+                    }
+                    mFields |= 1 << key;
+                    return;
+                }
+                break;
+            case KIND_BOOLEAN:
+                if (c == 't') {
+                    readKeyword("true");
+                    mBooleans[key] = true;
+                    mFields |= 1 << key;
+                    return;
+                } else if (c == 'f') {
+                    readKeyword("false");
+                    mBooleans[key] = false;
+                    mFields |= 1 << key;
+                    return;
+                }
+                break;
+            case KIND_NUMBER:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    if (readNumber()) {
+                        mDoubles[key] = mNumberIsLong ? (double) mNumberLong : mNumberDouble;
+                        mLongs[key] = mNumberIsLong ? mNumberLong : (long) mNumberDouble;
+                        mInts[key] = mNumberIsLong ? (int) mNumberLong : (int) mNumberDouble;
+                        mFields |= 1 << key;
+                    } else {
+                        mFallback = true;
+                    }
+                    return;
+                }
+                break;
+        }
+        // a value we do not read ourselves, let the json object handle the conversion
+        mFallback = true;
+        mFields &= ~(1 << key);
+        skipValue();
+    }
+
+    /* resolves the gesture id once, known names reuse the registered string */
+    private void readGestureName(int start, int end) throws JSONException {
+        if (end >= 0) {
+            final String[] names = GestureId.names();
+            for (int i = 0; i < names.length; ++i) {
+                if (regionEquals(start, end, names[i])) {
+                    mGestureId = i;
+                    mStrings[P_NAME] = names[i];
+                    return;
+                }
+            }
+        }
+        final String name = decodeString(start, end);
+        mGestureId = GestureId.of(name);
+        mStrings[P_NAME] = name;
+    }
+
+    private Object buildPayload() {
+        if (mFallback) return null;
+        switch (mType) {
+            case Gesture:
+                if (has(P_NAME)) return new PublisherEvent.Gesture(mGestureId, mStrings[P_NAME]);
+                break;
+            case Writing:
+                if (has(P_VOCABULARY) && has(P_HYPOTHESIS) && has(P_FINAL)) {
+                    return new PublisherEvent.Writing(mStrings[P_VOCABULARY], mStrings[P_HYPOTHESIS], mBooleans[P_FINAL]);
+                }
+                break;
+            case WritingSegment:
+                if (has(P_STARTED)) return new PublisherEvent.WritingSegment(mBooleans[P_STARTED]);
+                break;
+            case Activation:
+                if (has(P_ACTIVE)) return new PublisherEvent.Activation(mBooleans[P_ACTIVE]);
+                break;
+            case Heartbeat:
+                if (has(P_ACTIVE) && has(P_FLAGS) && has(P_STREAM) && has(P_SENSOR) && has(P_LAST)) {
+                    return new PublisherEvent.Heartbeat(mBooleans[P_ACTIVE], mInts[P_FLAGS],
+                            mStrings[P_STREAM], mStrings[P_SENSOR], mLongs[P_LAST]);
+                }
+                break;
+            case MouseEvent:
+                if (!has(P_TYPE) || mMouseType == MOUSE_TOGGLE) {
+                    return new PublisherEvent.MouseEvent(PublisherEvent.MouseEvent.Type.Toggle, 0.0, 0.0, false);
+                } else if (isCompleteMove()) {
+                    return new PublisherEvent.MouseEvent(PublisherEvent.MouseEvent.Type.Move,
+                            mDoubles[P_DX], mDoubles[P_DY], mBooleans[P_DOWN]);
+                }
+                break;
+        }
+        // incomplete, the json object based parsing reports the error
+        return null;
+    }
+
+    private boolean isCompleteMove() {
+        return !mFallback && mType == PublisherEvent.Type.MouseEvent && has(P_TYPE) && mMouseType == MOUSE_MOVE
+                && has(P_DX) && has(P_DY) && has(P_DOWN);
+    }
+
+    private boolean has(int key) {
+        return (mFields & (1 << key)) != 0;
+    }
+
+    /* whether parametersOf(payload, mFields) recreates all parameters */
+    private boolean canRebuild(Object payload) {
+        if (mUnknownKeys) return false;
+        final int fields;
+        if (payload instanceof PublisherEvent.Gesture) {
+            fields = bit(P_NAME);
+        } else if (payload instanceof PublisherEvent.Writing) {
+            fields = bit(P_VOCABULARY) | bit(P_HYPOTHESIS) | bit(P_FINAL);
+        } else if (payload instanceof PublisherEvent.WritingSegment) {
+            fields = bit(P_STARTED);
+        } else if (payload instanceof PublisherEvent.Activation) {
+            fields = bit(P_ACTIVE);
+        } else if (payload instanceof PublisherEvent.Heartbeat) {
+            fields = bit(P_ACTIVE) | bit(P_FLAGS) | bit(P_STREAM) | bit(P_SENSOR) | bit(P_LAST);
+        } else if (((PublisherEvent.MouseEvent) payload).type == PublisherEvent.MouseEvent.Type.Move) {
+            fields = MOVE_FIELDS;
+        } else {
+            fields = bit(P_TYPE);
+        }
+        return (mFields & ~fields) == 0;
+    }
+
+    private static int bit(int key) {
+        return 1 << key;
+    }
+
+    /**
+     * Create the parameters json of a payload filled by the decoder.
+     * @param payload the payload
+     * @param fields the keys which were present in the decoded parameters
+     * @return the parameters as json object
+     * @throws JSONException if a value could not be written
+     */
+    static JSONObject parametersOf(Object payload, int fields) throws JSONException {
+        final JSONObject parameters = new JSONObject();
+        if (payload instanceof PublisherEvent.Gesture) {
+            parameters.put("name", ((PublisherEvent.Gesture) payload).name);
+        } else if (payload instanceof PublisherEvent.Writing) {
+            final PublisherEvent.Writing writing = (PublisherEvent.Writing) payload;
+            parameters.put("vocabulary", writing.vocabulary)
+                    .put("hypothesis", writing.hypothesis)
+                    .put("final", writing.isFinal);
+        } else if (payload instanceof PublisherEvent.WritingSegment) {
+            parameters.put("started", ((PublisherEvent.WritingSegment) payload).started);
+        } else if (payload instanceof PublisherEvent.Activation) {
+            parameters.put("active", ((PublisherEvent.Activation) payload).active);
+        } else if (payload instanceof PublisherEvent.Heartbeat) {
+            final PublisherEvent.Heartbeat heartbeat = (PublisherEvent.Heartbeat) payload;
+            parameters.put("active", heartbeat.active)
+                    .put("flags", heartbeat.flags)
+                    .put("stream", heartbeat.stream)
+                    .put("sensor", heartbeat.sensor)
+                    .put("last", heartbeat.last);
+        } else if (payload instanceof PublisherEvent.MouseEvent) {
+            final PublisherEvent.MouseEvent mouse = (PublisherEvent.MouseEvent) payload;
+            if (mouse.type == PublisherEvent.MouseEvent.Type.Move) {
+                parameters.put("type", "move")
+                        .put("dx", mouse.dx)
+                        .put("dy", mouse.dy)
+                        .put("down", mouse.palmVertical);
+            } else if ((fields & bit(P_TYPE)) != 0) {
+                parameters.put("type", "toggle");
+            }
+        }
+        return parameters;
+    }
+
+    /* keys */
+
+    private int readTopLevelKey() throws JSONException {
+        if (peek() != '"') throw syntaxError("Expected a key");
+        final int start = mPos + 1;
+        final int end = skipString();
+        if (end == mPos - 1) {
+            if (regionEquals(start, end, "type")) return KEY_TYPE;
+            if (regionEquals(start, end, "parameters")) return KEY_PARAMETERS;
+            if (regionEquals(start, end, "seq")) return KEY_SEQUENCE;
+            return KEY_UNKNOWN;
+        }
+        final String key = decodeString(start, end);
+        if ("type".equals(key)) return KEY_TYPE;
+        if ("parameters".equals(key)) return KEY_PARAMETERS;
+        if ("seq".equals(key)) return KEY_SEQUENCE;
+        return KEY_UNKNOWN;
+    }
+
+    private int readParameterKey() throws JSONException {
+        if (peek() != '"') throw syntaxError("Expected a key");
+        final int start = mPos + 1;
+        final int end = skipString();
+        if (end == mPos - 1) {
+            for (int i = 0; i < PARAM_KEYS.length; ++i) {
+                if (regionEquals(start, end, PARAM_KEYS[i])) return i;
+            }
+            return KEY_UNKNOWN;
+        }
+        final String key = decodeString(start, end);
+        for (int i = 0; i < PARAM_KEYS.length; ++i) {
+            if (PARAM_KEYS[i].equals(key)) return i;
+        }
+        return KEY_UNKNOWN;
+    }
+
+    /* values */
+
+    private void skipValue() throws JSONException {
+        final char c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            case 't':
+                readKeyword("true");
+                break;
+            case 'f':
+                readKeyword("false");
+                break;
+            case 'n':
+                readKeyword("null");
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber();
+                } else {
+                    throw syntaxError("Unexpected character '" + c + "'");
+                }
+        }
+    }
+
+    private void skipContainer() throws JSONException {
+        int depth = 0;
+        while (mPos < mEnd) {
+            final char c = at(mPos);
+            if (c == '"') {
+                skipString();
+                continue;
+            }
+            ++mPos;
+            if (c == '{' || c == '[') {
+                ++depth;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) return;
+            }
+        }
+        throw syntaxError("Unterminated object or array");
+    }
+
+    /**
+     * Skip the string starting at the current position.
+     * @return the end index of the string content; equals mPos - 1 if the string has no escapes.
+     */
+    private int skipString() throws JSONException {
+        boolean escaped = false;
+        int i = mPos + 1;
+        while (i < mEnd) {
+            final char c = at(i);
+            if (c == '"') {
+                mPos = i + 1;
+                return escaped ? -i : i;
+            } else if (c == '\\') {
+                escaped = true;
+                i += 2;
+            } else {
+                ++i;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /* end is negative if the string contains escapes (see skipString) */
+    private String decodeString(int start, int end) throws JSONException {
+        if (end >= 0) return region(start, end);
+
+        final String raw = region(start, -end);
+        end = raw.length();
+        final StringBuilder sb = mBuilder;
+        sb.setLength(0);
+        for (int i = 0; i < end; ++i) {
+            final char c = raw.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            final char e = raw.charAt(++i);
+            switch (e) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= end) throw syntaxError("Unterminated escape sequence");
+                    try {
+                        sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException ex) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean regionEquals(int start, int end, String value) {
+        if (end - start != value.length() || end > mEnd) return false;
+        if (mBytes == null) return mText.regionMatches(start, value, 0, value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            if (mBytes[start + i] != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String region(int start, int end) {
+        if (mBytes == null) return mText.substring(start, end);
+        return new String(mBytes, start, end - start, UTF8);
+    }
+
+    /* structural characters are ascii, so utf-8 bytes can be read as chars outside of strings */
+    private char at(int i) {
+        return mBytes == null ? mText.charAt(i) : (char) (mBytes[i] & 0xff);
+    }
+
+    /**
+     * Read a number literal into mNumberDouble / mNumberLong.
+     * @return false if the literal can not be read exactly (i.e. leading zeros, which org.json
+     * reads as octal, or integers which do not fit a long).
+     */
+    private boolean readNumber() throws JSONException {
+        final int start = mPos;
+        int i = mPos;
+        boolean negative = false;
+        if (at(i) == '-') {
+            negative = true;
+            ++i;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean isLong = true;
+        boolean exact = true;
+
+        final int intStart = i;
+        while (i < mEnd && isDigit(at(i))) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (at(i) - '0');
+                if (mantissa != 0) ++digits;
+            } else {
+                ++exponent;
+                exact = false;
+            }
+            ++i;
+        }
+        if (i == intStart) throw syntaxError("Invalid number");
+        if (at(intStart) == '0' && i - intStart > 1) exact = false;
+
+        if (i < mEnd && at(i) == '.') {
+            isLong = false;
+            ++i;
+            final int fracStart = i;
+            while (i < mEnd && isDigit(at(i))) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (at(i) - '0');
+                    if (mantissa != 0) ++digits;
+                    --exponent;
+                } else {
+                    exact = false;
+                }
+                ++i;
+            }
+            if (i == fracStart) throw syntaxError("Invalid number");
+        }
+
+        if (i < mEnd && (at(i) == 'e' || at(i) == 'E')) {
+            isLong = false;
+            ++i;
+            boolean negativeExp = false;
+            if (i < mEnd && (at(i) == '+' || at(i) == '-')) {
+                negativeExp = at(i) == '-';
+                ++i;
+            }
+            final int expStart = i;
+            int exp = 0;
+            while (i < mEnd && isDigit(at(i))) {
+                if (exp < 10000) exp = exp * 10 + (at(i) - '0');
+                ++i;
+            }
+            if (i == expStart) throw syntaxError("Invalid number");
+            exponent += negativeExp ? -exp : exp;
+        }
+        mPos = i;
+
+        if (isLong) {
+            if (!exact || exponent != 0) return false;
+            mNumberIsLong = true;
+            mNumberLong = negative ? -mantissa : mantissa;
+            return true;
+        }
+
+        mNumberIsLong = false;
+        if (exact && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            // both operands are exact doubles, so the result is correctly rounded
+            final double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+            mNumberDouble = negative ? -value : value;
+        } else {
+            mNumberDouble = Double.parseDouble(region(start, i));
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /* reads a literal for error messages */
+    private String readLiteral() throws JSONException {
+        final int start = mPos;
+        skipValue();
+        return region(start, mPos);
+    }
+
+    private void readKeyword(String keyword) throws JSONException {
+        if (!regionEquals(mPos, mPos + keyword.length(), keyword)) {
+            throw syntaxError("Expected " + keyword);
+        }
+        mPos += keyword.length();
+    }
+
+    /* tokens */
+
+    private char peek() throws JSONException {
+        skipWhitespace();
+        if (mPos >= mEnd) throw syntaxError("End of input");
+        return at(mPos);
+    }
+
+    private char next() throws JSONException {
+        final char c = peek();
+        ++mPos;
+        return c;
+    }
+
+    private void expect(char expected) throws JSONException {
+        if (next() != expected) throw syntaxError("Expected '" + expected + "'");
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mEnd) {
+            final char c = at(mPos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            ++mPos;
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + mPos);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * Counters of a receiver of Publisher messages: received messages and bytes, events per
+ * {@link PublisherEvent.Type}, parse failures, messages which were filtered out and events which were
+ * dropped. All counters are {@link StripedCounter}s, so they can be updated from any thread.
+ * Use {@link #snapshot()} to read them and {@link Snapshot#perSecond(long, long, Snapshot)} to
+ * compute rates between two snapshots.
+ */
+public final class EventMetrics {
+
+    private final StripedCounter mMessages = new StripedCounter();
+    private final StripedCounter mBytes = new StripedCounter();
+    private final StripedCounter mParseFailures = new StripedCounter();
+    private final StripedCounter mFiltered = new StripedCounter();
+    private final StripedCounter[] mEvents = counters();
+    private final StripedCounter[] mDropped = counters();
+
+    private static StripedCounter[] counters() {
+        final StripedCounter[] counters = new StripedCounter[PublisherEvent.Type.values().length];
+        for (int i = 0; i < counters.length; ++i) counters[i] = new StripedCounter();
+        return counters;
+    }
+
+    /**
+     * Count a received message.
+     * @param bytes size of the message
+     */
+    public void recordMessage(int bytes) {
+        mMessages.increment();
+        mBytes.add(bytes);
+    }
+
+    /**
+     * Count a received event.
+     * @param type the event type
+     */
+    public void recordEvent(@NonNull PublisherEvent.Type type) {
+        mEvents[type.ordinal()].increment();
+    }
+
+    /**
+     * Count a message which could not be parsed.
+     */
+    public void recordParseFailure() {
+        mParseFailures.increment();
+    }
+
+    /**
+     * Count a message which was received but not delivered because its type is not subscribed.
+     */
+    public void recordFiltered() {
+        mFiltered.increment();
+    }
+
+    /**
+     * Count a received event which was dropped before it was delivered.
+     * @param type the event type
+     */
+    public void recordDropped(@NonNull PublisherEvent.Type type) {
+        mDropped[type.ordinal()].increment();
+    }
+
+    /**
+     * Read all counters.
+     * @return the current values
+     */
+    public @NonNull Snapshot snapshot() {
+        final long[] events = new long[mEvents.length];
+        final long[] dropped = new long[mDropped.length];
+        for (int i = 0; i < events.length; ++i) {
+            events[i] = mEvents[i].sum();
+            dropped[i] = mDropped[i].sum();
+        }
+        return new Snapshot(System.nanoTime(), mMessages.sum(), mBytes.sum(), mParseFailures.sum(),
+                mFiltered.sum(), events, dropped);
+    }
+
+    /**
+     * The values of {@link EventMetrics} at one point in time.
+     */
+    public static final class Snapshot {
+        /** {@link System#nanoTime()} when the snapshot was taken. */
+        public final long timeNanos;
+        /** Received messages. */
+        public final long messages;
+        /** Received bytes. */
+        public final long bytes;
+        /** Messages which could not be parsed. */
+        public final long parseFailures;
+        /** Messages which were filtered out. */
+        public final long filtered;
+        private final long[] mEvents;
+        private final long[] mDropped;
+
+        Snapshot(long timeNanos, long messages, long bytes, long parseFailures, long filtered,
+                 long[] events, long[] dropped) {
+            this.timeNanos = timeNanos;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.parseFailures = parseFailures;
+            this.filtered = filtered;
+            mEvents = events;
+            mDropped = dropped;
+        }
+
+        /**
+         * Received events of a type.
+         * @param type the event type
+         * @return number of events
+         */
+        public long getEvents(@NonNull PublisherEvent.Type type) {
+            return mEvents[type.ordinal()];
+        }
+
+        /**
+         * Received events of all types.
+         * @return number of events
+         */
+        public long getTotalEvents() {
+            long sum = 0;
+            for (long events : mEvents) sum += events;
+            return sum;
+        }
+
+        /**
+         * Dropped events of a type.
+         * @param type the event type
+         * @return number of dropped events
+         */
+        public long getDropped(@NonNull PublisherEvent.Type type) {
+            return mDropped[type.ordinal()];
+        }
+
+        /**
+         * Dropped events of all types.
+         * @return number of dropped events
+         */
+        public long getTotalDropped() {
+            long sum = 0;
+            for (long dropped : mDropped) sum += dropped;
+            return sum;
+        }
+
+        /**
+         * Rate of a counter between an earlier snapshot and this one,
+         * i.e. {@code now.perSecond(now.messages, before.messages, before)}.
+         * @param value the counter of this snapshot
+         * @param earlierValue the same counter of the earlier snapshot
+         * @param earlier the earlier snapshot
+         * @return the rate per second, 0 if no time passed
+         */
+        public double perSecond(long value, long earlierValue, @NonNull Snapshot earlier) {
+            final long elapsed = timeNanos - earlier.timeNanos;
+            if (elapsed <= 0) return 0.0;
+            return (value - earlierValue) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder()
+                    .append("messages=").append(messages)
+                    .append(" bytes=").append(bytes)
+                    .append(" parseFailures=").append(parseFailures)
+                    .append(" filtered=").append(filtered);
+            for (PublisherEvent.Type type : PublisherEvent.Type.values()) {
+                final long events = getEvents(type);
+                final long dropped = getDropped(type);
+                if (events == 0 && dropped == 0) continue;
+                builder.append(' ').append(type).append('=').append(events);
+                if (dropped > 0) builder.append("(dropped ").append(dropped).append(')');
+            }
+            return builder.toString();
+        }
+    }
+}
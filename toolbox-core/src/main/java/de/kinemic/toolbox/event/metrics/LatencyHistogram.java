@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram for latencies in nanoseconds, in the style of HdrHistogram.
+ * Values are counted in log-linear buckets: exact below {@link #SUB_BUCKETS} nanoseconds, above
+ * that every power of two is split into {@link #SUB_BUCKETS}/2 linear buckets, so the relative
+ * error of a reported value is below 1/{@link #SUB_BUCKETS}*2 (about 6%).
+ * Values above the highest trackable value are counted as the highest value.
+ *
+ * Recording is lock free and can be done from any thread, reading from any other thread.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    /** Number of linear buckets in the first bucket. */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    /** Default highest trackable value, 10 seconds. */
+    public static final long DEFAULT_HIGHEST_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long mHighest;
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Create a histogram for values up to {@link #DEFAULT_HIGHEST_NANOS}.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_NANOS);
+    }
+
+    /**
+     * Create a histogram.
+     * @param highestNanos highest trackable value, at least {@link #SUB_BUCKETS}
+     */
+    public LatencyHistogram(long highestNanos) {
+        if (highestNanos < SUB_BUCKETS) throw new IllegalArgumentException("highestNanos must be at least " + SUB_BUCKETS);
+        mHighest = highestNanos;
+        mCounts = new AtomicLongArray(indexOf(highestNanos) + 1);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        final int sub = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (sub - HALF_SUB_BUCKETS);
+    }
+
+    /* lowest value counted in a bucket */
+    static long valueOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final long sub = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return sub << shift;
+    }
+
+    /* highest value counted in a bucket */
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return valueOf(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Record a latency. Negative values are ignored.
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        final long value = nanos > mHighest ? mHighest : nanos;
+        mCounts.incrementAndGet(indexOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Number of recorded values.
+     * @return count
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Highest recorded value.
+     * @return maximum in nanoseconds, 0 if empty
+     */
+    public long getMaxNanos() {
+        return mMax.get();
+    }
+
+    /**
+     * Mean of the recorded values.
+     * @return mean in nanoseconds, 0 if empty
+     */
+    public long getMeanNanos() {
+        final long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Value at a percentile, i.e. 99.0 for the value 99% of the recorded values are below or equal to.
+     * @param percentile percentile between 0 and 100
+     * @return the highest value of the bucket containing the percentile in nanoseconds, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long count = mCount.get();
+        if (count == 0) return 0;
+        final double clamped = Math.min(Math.max(percentile, 0.0), 100.0);
+        final long rank = Math.max(1, (long) Math.ceil(clamped / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); ++i) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(highestValueOf(i), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Clear all recorded values. Values recorded concurrently may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); ++i) mCounts.set(i, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Summary with count, mean, median, 99th percentile and maximum in microseconds.
+     * @return the summary
+     */
+    public @NonNull String summary() {
+        return "count=" + getCount()
+                + " mean=" + micros(getMeanNanos())
+                + " p50=" + micros(getValueAtPercentile(50.0))
+                + " p99=" + micros(getValueAtPercentile(99.0))
+                + " max=" + micros(getMaxNanos());
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000) + "us";
+    }
+
+    @Override
+    public String toString() {
+        return summary();
+    }
+}
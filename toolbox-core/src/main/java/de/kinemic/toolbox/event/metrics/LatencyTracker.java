@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * Latency histograms of the stages an event passes from the socket to the event handler.
+ * Events are stamped with {@link System#nanoTime()} when their frame was received and when they
+ * were decoded ({@link PublisherEvent#getReceivedNanos()}), the handling code records when it
+ * started and finished handling them.
+ *
+ * Uses {@link Stage#values()}.length + {@link PublisherEvent.Type#values()}.length fixed size
+ * histograms, see {@link LatencyHistogram}.
+ */
+public final class LatencyTracker {
+
+    /**
+     * The stages of an event.
+     */
+    public enum Stage {
+        /** From frame received to event decoded. */
+        DECODE,
+        /** From event decoded to handler called, includes batching, queues and looper delays. */
+        DELIVERY,
+        /** From handler called to handler returned, for the whole batch the event was part of. */
+        HANDLER,
+        /** From frame received to the frame handler returned, for frame aligned delivery. */
+        FRAME
+    }
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[Stage.values().length];
+    private final LatencyHistogram[] mTotals = new LatencyHistogram[PublisherEvent.Type.values().length];
+
+    /**
+     * Create a new tracker.
+     */
+    public LatencyTracker() {
+        for (int i = 0; i < mStages.length; ++i) mStages[i] = new LatencyHistogram();
+        for (int i = 0; i < mTotals.length; ++i) mTotals[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Record events which were handled. Events without stamps (received while no tracker was set) are skipped.
+     * @param events the handled events
+     * @param handlerNanos {@link System#nanoTime()} when the handler was called
+     * @param returnNanos {@link System#nanoTime()} when the handler returned
+     */
+    public void recordHandled(@NonNull List<PublisherEvent> events, long handlerNanos, long returnNanos) {
+        final LatencyHistogram decode = mStages[Stage.DECODE.ordinal()];
+        final LatencyHistogram delivery = mStages[Stage.DELIVERY.ordinal()];
+        final LatencyHistogram handler = mStages[Stage.HANDLER.ordinal()];
+        for (int i = 0; i < events.size(); ++i) {
+            final PublisherEvent event = events.get(i);
+            final long received = event.getReceivedNanos();
+            if (received == 0) continue;
+            decode.record(event.getDecodedNanos() - received);
+            delivery.record(handlerNanos - event.getDecodedNanos());
+            handler.record(returnNanos - handlerNanos);
+            mTotals[event.type.ordinal()].record(returnNanos - received);
+        }
+    }
+
+    /**
+     * Record events which were handled in a frame callback, after they were already recorded
+     * with {@link #recordHandled(List, long, long)} when they were passed to the frame dispatcher.
+     * @param events the handled events
+     * @param returnNanos {@link System#nanoTime()} when the frame handler returned
+     */
+    public void recordFrame(@NonNull List<PublisherEvent> events, long returnNanos) {
+        final LatencyHistogram frame = mStages[Stage.FRAME.ordinal()];
+        for (int i = 0; i < events.size(); ++i) {
+            final long received = events.get(i).getReceivedNanos();
+            if (received != 0) frame.record(returnNanos - received);
+        }
+    }
+
+    /**
+     * Histogram of a stage, for all event types.
+     * @param stage the stage
+     * @return the histogram
+     */
+    public @NonNull LatencyHistogram getStage(@NonNull Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    /**
+     * Histogram of the time from frame received to handler returned for an event type.
+     * @param type the event type
+     * @return the histogram
+     */
+    public @NonNull LatencyHistogram getTotal(@NonNull PublisherEvent.Type type) {
+        return mTotals[type.ordinal()];
+    }
+
+    /**
+     * Clear all histograms.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : mStages) histogram.reset();
+        for (LatencyHistogram histogram : mTotals) histogram.reset();
+    }
+
+    /**
+     * Summary of all non empty histograms, one per line.
+     * @return the summary
+     */
+    public @NonNull String dump() {
+        final StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = mStages[stage.ordinal()];
+            if (histogram.getCount() > 0) builder.append(stage).append(": ").append(histogram.summary()).append('\n');
+        }
+        for (PublisherEvent.Type type : PublisherEvent.Type.values()) {
+            final LatencyHistogram histogram = mTotals[type.ordinal()];
+            if (histogram.getCount() > 0) builder.append(type).append(": ").append(histogram.summary()).append('\n');
+        }
+        return builder.toString();
+    }
+}
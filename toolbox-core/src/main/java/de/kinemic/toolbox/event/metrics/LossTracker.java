@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * Accounts for messages which were lost between the Publisher and the subscriber, i.e. dropped by
+ * a full high water mark of a PUB/SUB socket.
+ *
+ * If the Publisher numbers its messages (see {@link PublisherEvent#getSequence()}), losses are
+ * counted exactly from gaps in the sequence. Sequences are per event type, as the Publisher only
+ * sends the subscribed types. Otherwise they are estimated from missing
+ * {@link PublisherEvent.Type#Heartbeat}s: heartbeats are sent periodically, a queue which drops
+ * messages drops them regardless of their type, so the fraction of missing heartbeats is an
+ * estimate for the fraction of all lost messages. Without sequence numbers and heartbeats the
+ * estimate is 0, a listener can receive heartbeats for it even if they are not in its event types.
+ * Gaps longer than {@link #setMaxHeartbeatGap(long)} are not counted, the Publisher was paused
+ * or the connection stalled then.
+ *
+ * Must be updated from one thread (the receiving thread), can be read from any thread.
+ */
+public final class LossTracker {
+    /** Default for {@link #setMaxHeartbeatGap(long)}, the default stall timeout of a health monitor. */
+    public static final long DEFAULT_MAX_HEARTBEAT_GAP_MILLIS = 3000;
+
+    /* an interval longer than this factor of the expected interval has missing heartbeats */
+    private static final double MISSED_FACTOR = 1.5;
+    /* weight of a new interval for the expected interval */
+    private static final double INTERVAL_WEIGHT = 0.125;
+
+    private static final int TYPES = PublisherEvent.Type.values().length;
+
+    private final AtomicLongArray mReceived = new AtomicLongArray(TYPES);
+    private final AtomicLongArray mSequenceLost = new AtomicLongArray(TYPES);
+
+    // written by the receiving thread only
+    private final long[] mLastSequence = new long[TYPES];
+    private long mLastHeartbeatNanos;
+    private double mHeartbeatIntervalNanos;
+
+    private volatile long mSequenced;
+    private volatile long mSequenceGaps;
+    private volatile long mSequenceResets;
+    private volatile long mHeartbeats;
+    private volatile long mHeartbeatsMissed;
+    private volatile long mMaxHeartbeatGapNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_HEARTBEAT_GAP_MILLIS);
+
+    /**
+     * Set the longest gap between two heartbeats which is counted as loss. A longer gap is no
+     * loss of the socket: the Publisher was paused, the connection stalled or heartbeats were not
+     * subscribed in between. Use the stall timeout of the health monitor, if one is used.
+     * Can be changed at any time. Default is {@link #DEFAULT_MAX_HEARTBEAT_GAP_MILLIS}.
+     * @param millis maximum gap in milliseconds
+     */
+    public void setMaxHeartbeatGap(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("gap must be positive");
+        mMaxHeartbeatGapNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Longest gap between heartbeats which is counted as loss, see {@link #setMaxHeartbeatGap(long)}.
+     * @return maximum gap in milliseconds
+     */
+    public long getMaxHeartbeatGap() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxHeartbeatGapNanos);
+    }
+
+    /**
+     * Record a received event.
+     * @param event the event
+     * @param receivedNanos {@link System#nanoTime()} when the event was received
+     */
+    public void record(@NonNull PublisherEvent event, long receivedNanos) {
+        record(event.type, event.getSequence(), receivedNanos);
+    }
+
+    /**
+     * Record a received event, for events which are not decoded to a {@link PublisherEvent}.
+     * @param type the event type
+     * @param sequence the sequence number of the event, -1 for none
+     * @param receivedNanos {@link System#nanoTime()} when the event was received
+     */
+    public void record(@NonNull PublisherEvent.Type type, long sequence, long receivedNanos) {
+        mReceived.incrementAndGet(type.ordinal());
+        if (sequence >= 0) recordSequence(type.ordinal(), sequence);
+        if (type == PublisherEvent.Type.Heartbeat) recordHeartbeat(receivedNanos);
+    }
+
+    private void recordSequence(int type, long sequence) {
+        mSequenced++;
+        // stored + 1, so 0 is no sequence yet
+        final long last = mLastSequence[type] - 1;
+        mLastSequence[type] = sequence + 1;
+        if (last < 0 || sequence == last + 1) return;
+        if (sequence > last) {
+            mSequenceLost.addAndGet(type, sequence - last - 1);
+            mSequenceGaps++;
+        } else {
+            // the Publisher restarted (or the sequence wrapped), start over
+            mSequenceResets++;
+        }
+    }
+
+    private void recordHeartbeat(long receivedNanos) {
+        mHeartbeats++;
+        final long last = mLastHeartbeatNanos;
+        mLastHeartbeatNanos = receivedNanos;
+        if (last == 0) return;
+        final long interval = receivedNanos - last;
+        // a long gap says nothing about the socket, and must not skew the expected interval
+        if (interval <= 0 || interval > mMaxHeartbeatGapNanos) return;
+
+        final double expected = mHeartbeatIntervalNanos;
+        if (expected == 0 || interval < expected / MISSED_FACTOR) {
+            // first interval, or the first one already had missing heartbeats
+            mHeartbeatIntervalNanos = interval;
+        } else if (interval > expected * MISSED_FACTOR) {
+            mHeartbeatsMissed += Math.round(interval / expected) - 1;
+        } else {
+            mHeartbeatIntervalNanos = expected + (interval - expected) * INTERVAL_WEIGHT;
+        }
+    }
+
+    /**
+     * Whether the Publisher numbers its messages, so losses are counted exactly.
+     * @return true if any event with a sequence number was recorded
+     */
+    public boolean hasSequence() {
+        return mSequenced > 0;
+    }
+
+    /**
+     * Messages lost according to gaps in the sequence numbers.
+     * @return number of lost messages, 0 without sequence numbers
+     */
+    public long getSequenceLost() {
+        long sum = 0;
+        for (int i = 0; i < TYPES; ++i) sum += mSequenceLost.get(i);
+        return sum;
+    }
+
+    /**
+     * Gaps in the sequence numbers, each gap is one or more consecutive lost messages.
+     * @return number of gaps
+     */
+    public long getSequenceGaps() {
+        return mSequenceGaps;
+    }
+
+    /**
+     * Times the sequence numbers started over, i.e. because the Publisher was restarted.
+     * @return number of resets
+     */
+    public long getSequenceResets() {
+        return mSequenceResets;
+    }
+
+    /**
+     * Received heartbeats.
+     * @return number of heartbeats
+     */
+    public long getHeartbeats() {
+        return mHeartbeats;
+    }
+
+    /**
+     * Heartbeats which should have been received according to the heartbeat interval.
+     * @return number of missing heartbeats
+     */
+    public long getHeartbeatsMissed() {
+        return mHeartbeatsMissed;
+    }
+
+    /**
+     * Estimated fraction of lost messages, from the sequence numbers if available, else from the heartbeats.
+     * @return lost / (received + lost), 0 if nothing is known
+     */
+    public double getLossRatio() {
+        final long lost;
+        final long received;
+        if (hasSequence()) {
+            lost = getSequenceLost();
+            received = mSequenced;
+        } else {
+            lost = mHeartbeatsMissed;
+            received = mHeartbeats;
+        }
+        if (lost + received == 0) return 0.0;
+        return lost / (double) (lost + received);
+    }
+
+    /**
+     * Received events of a type.
+     * @param type the event type
+     * @return number of events
+     */
+    public long getReceived(@NonNull PublisherEvent.Type type) {
+        return mReceived.get(type.ordinal());
+    }
+
+    /**
+     * Lost events of a type, counted from the sequence numbers if available, else scaled from the
+     * received events of that type with {@link #getLossRatio()}.
+     * @param type the event type
+     * @return (estimated) number of lost events
+     */
+    public long getEstimatedLost(@NonNull PublisherEvent.Type type) {
+        if (hasSequence()) return mSequenceLost.get(type.ordinal());
+        final double ratio = getLossRatio();
+        if (ratio <= 0.0 || ratio >= 1.0) return 0;
+        return Math.round(getReceived(type) * ratio / (1.0 - ratio));
+    }
+
+    /**
+     * Estimated lost events of all types.
+     * @return estimated number of lost events
+     */
+    public long getEstimatedLost() {
+        if (hasSequence()) return getSequenceLost();
+        long sum = 0;
+        for (PublisherEvent.Type type : PublisherEvent.Type.values()) sum += getEstimatedLost(type);
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        if (hasSequence()) {
+            builder.append("lost=").append(getSequenceLost())
+                    .append(" gaps=").append(mSequenceGaps)
+                    .append(" resets=").append(mSequenceResets);
+        } else {
+            builder.append("heartbeats=").append(mHeartbeats)
+                    .append(" missed=").append(mHeartbeatsMissed);
+        }
+        for (PublisherEvent.Type type : PublisherEvent.Type.values()) {
+            final long lost = getEstimatedLost(type);
+            if (lost > 0) builder.append(' ').append(type).append("~").append(lost);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which can be incremented from several threads without contention.
+ * Each thread adds to one of a few cells, which are on separate cache lines, reading sums them up.
+ * (java.util.concurrent.atomic.LongAdder is not available on all supported Android versions.)
+ */
+public final class StripedCounter {
+    /* longs per cell, keeps cells on separate 64 byte cache lines */
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripes() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors && stripes < 8) stripes <<= 1;
+        return stripes;
+    }
+
+    /**
+     * Add to the counter.
+     * @param value the value to add
+     */
+    public void add(long value) {
+        mCells.addAndGet(cell(), value);
+    }
+
+    /**
+     * Add one to the counter.
+     */
+    public void increment() {
+        mCells.incrementAndGet(cell());
+    }
+
+    /**
+     * Current value, not an atomic snapshot if updated concurrently.
+     * @return the sum of all cells
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) sum += mCells.get(i * PADDING);
+        return sum;
+    }
+
+    private static int cell() {
+        final long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 59) % STRIPES * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.zeromq.ZSocket.UTF8;
+
+/**
+ * Reads a capture written by {@link CaptureWriter}. The file is memory mapped, records are read
+ * into a reused {@link Record}, so reading does not allocate per record.
+ * A record which was only partially written (i.e. the recording process died) ends the capture.
+ *
+ * Not thread safe.
+ */
+public final class CaptureReader implements Closeable {
+    /**
+     * A record of a capture, reused for every read.
+     */
+    public static final class Record {
+        long timeNanos;
+        byte kind;
+        byte[] topic = new byte[64];
+        int topicLength;
+        byte[] data = new byte[512];
+        int length;
+
+        /**
+         * Time the message was received at.
+         * @return {@link System#nanoTime()} of the recording process
+         */
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        /**
+         * Whether this is a log message.
+         * @return true for a log message, false for an event message
+         */
+        public boolean isLog() {
+            return kind == CaptureWriter.KIND_LOG;
+        }
+
+        /**
+         * Topic of the message, the log level for log messages.
+         * @return the topic or null for a single part message
+         */
+        public @Nullable String getTopic() {
+            return topicLength < 0 ? null : new String(topic, 0, topicLength, UTF8);
+        }
+
+        /**
+         * Payload of the message.
+         * @return the json payload
+         */
+        public @NonNull String getData() {
+            return new String(data, 0, length, UTF8);
+        }
+    }
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final MappedByteBuffer mBuffer;
+    // pairs of time and offset
+    private long[] mIndex;
+
+    /**
+     * Open a capture.
+     * @param file the capture file
+     * @throws IOException if the file can not be read or is no capture
+     */
+    public CaptureReader(@NonNull File file) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "r");
+        try {
+            final long size = mRaf.length();
+            if (size > Integer.MAX_VALUE) throw new IOException("Capture too large: " + size);
+            mBuffer = mRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < CaptureWriter.HEADER_SIZE || mBuffer.getInt() != CaptureWriter.MAGIC) {
+                throw new IOException("Not a capture: " + file);
+            }
+            final int version = mBuffer.getInt();
+            if (version != CaptureWriter.VERSION) throw new IOException("Unsupported capture version: " + version);
+        } catch (IOException e) {
+            mRaf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the next record.
+     * @param record the record to read into
+     * @return false at the end of the capture
+     */
+    public boolean next(@NonNull Record record) {
+        final MappedByteBuffer buffer = mBuffer;
+        final int start = buffer.position();
+        if (buffer.remaining() < CaptureWriter.RECORD_HEADER_SIZE) return false;
+        final long time = buffer.getLong();
+        final byte kind = buffer.get();
+        final int topicLength = buffer.getInt();
+        final int length = buffer.getInt();
+        if ((kind != CaptureWriter.KIND_EVENT && kind != CaptureWriter.KIND_LOG)
+                || topicLength < -1 || length < 0
+                || buffer.remaining() < Math.max(topicLength, 0) + (long) length) {
+            // end of an unfinished capture
+            buffer.position(start);
+            return false;
+        }
+        record.timeNanos = time;
+        record.kind = kind;
+        record.topicLength = topicLength;
+        if (topicLength > 0) {
+            if (record.topic.length < topicLength) record.topic = new byte[topicLength];
+            buffer.get(record.topic, 0, topicLength);
+        }
+        record.length = length;
+        if (record.data.length < length) record.data = new byte[Math.max(length, record.data.length * 2)];
+        buffer.get(record.data, 0, length);
+        return true;
+    }
+
+    /**
+     * Go back to the first record.
+     */
+    public void rewind() {
+        mBuffer.position(CaptureWriter.HEADER_SIZE);
+    }
+
+    /**
+     * Go to the first record received at or after a time. Uses the index of the capture.
+     * @param nanos the time, see {@link Record#getTimeNanos()}
+     */
+    public void seek(long nanos) {
+        final long[] index = index();
+        // last indexed record at or before the time
+        int low = 0;
+        int high = index.length / 2 - 1;
+        int found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (index[mid * 2] <= nanos) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        mBuffer.position(found < 0 ? CaptureWriter.HEADER_SIZE : (int) index[found * 2 + 1]);
+        // skip the records before the time
+        while (mBuffer.remaining() >= CaptureWriter.RECORD_HEADER_SIZE) {
+            final int start = mBuffer.position();
+            if (mBuffer.getLong(start) >= nanos || !skip()) {
+                mBuffer.position(start);
+                return;
+            }
+        }
+    }
+
+    /* skips the record at the current position, false if it is incomplete */
+    private boolean skip() {
+        final int start = mBuffer.position();
+        final byte kind = mBuffer.get(start + 8);
+        final int topicLength = mBuffer.getInt(start + 9);
+        final int length = mBuffer.getInt(start + 13);
+        final long end = start + CaptureWriter.RECORD_HEADER_SIZE + (long) Math.max(topicLength, 0) + length;
+        if ((kind != CaptureWriter.KIND_EVENT && kind != CaptureWriter.KIND_LOG)
+                || topicLength < -1 || length < 0 || end > mBuffer.limit()) {
+            return false;
+        }
+        mBuffer.position((int) end);
+        return true;
+    }
+
+    private long[] index() {
+        if (mIndex == null) {
+            mIndex = readIndex();
+            if (mIndex == null) mIndex = buildIndex();
+        }
+        return mIndex;
+    }
+
+    /* reads the index written with the capture, null if there is none */
+    private long[] readIndex() {
+        final File file = CaptureWriter.indexFile(mFile);
+        if (!file.exists()) return null;
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != CaptureWriter.MAGIC || in.readInt() != CaptureWriter.VERSION) return null;
+                final int entries = in.readInt();
+                if (entries < 0 || entries > file.length() / 16) return null;
+                final long[] index = new long[entries * 2];
+                for (int i = 0; i < index.length; ++i) index[i] = in.readLong();
+                return isValid(index) ? index : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // rebuilt from the capture
+            return null;
+        }
+    }
+
+    /* whether the entries point to records of this capture, an index left over from another capture does not */
+    private boolean isValid(long[] index) {
+        long previous = CaptureWriter.HEADER_SIZE - 1;
+        for (int i = 0; i < index.length; i += 2) {
+            final long offset = index[i + 1];
+            if (offset <= previous || offset > mBuffer.limit() - CaptureWriter.RECORD_HEADER_SIZE) return false;
+            if (mBuffer.getLong((int) offset) != index[i]) return false;
+            previous = offset;
+        }
+        return true;
+    }
+
+    /* scans the capture, for captures which were not closed */
+    private long[] buildIndex() {
+        final int position = mBuffer.position();
+        long[] index = new long[64];
+        int size = 0;
+        long records = 0;
+        mBuffer.position(CaptureWriter.HEADER_SIZE);
+        while (mBuffer.remaining() >= CaptureWriter.RECORD_HEADER_SIZE) {
+            final int start = mBuffer.position();
+            final long time = mBuffer.getLong(start);
+            if (!skip()) break;
+            if (records++ % CaptureWriter.INDEX_INTERVAL != 0) continue;
+            if (size + 2 > index.length) {
+                final long[] grown = new long[index.length * 2];
+                System.arraycopy(index, 0, grown, 0, size);
+                index = grown;
+            }
+            index[size++] = time;
+            index[size++] = start;
+        }
+        mBuffer.position(position);
+        final long[] result = new long[size];
+        System.arraycopy(index, 0, result, 0, size);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRaf.close();
+    }
+}
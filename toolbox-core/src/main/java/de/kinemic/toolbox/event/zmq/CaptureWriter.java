@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.zeromq.ZSocket.UTF8;
+
+/**
+ * Writes a capture of a Publisher session, see {@link PublisherJsonListener#setRecorder(CaptureWriter)}.
+ *
+ * The capture is an append-only binary file, written through memory mapped regions so recording
+ * does not add a system call per message. It starts with a header (magic "KCAP", version) followed
+ * by records:
+ * <pre>
+ * long   receive time, System.nanoTime()
+ * byte   kind, 1 for an event, 2 for a log message
+ * int    topic length, -1 for single part messages (for log messages the level)
+ * int    payload length
+ * byte[] topic
+ * byte[] payload (json)
+ * </pre>
+ * All numbers are big endian. On {@link #close()} a seek index with the time and offset of every
+ * {@link #INDEX_INTERVAL}th record is written next to the capture (file name + ".idx").
+ * A capture which was not closed can still be read, the index is then rebuilt by the reader.
+ *
+ * Thread safe, the writing thread should be the receiving thread.
+ */
+public final class CaptureWriter implements Closeable {
+    /** Every n-th record is indexed. */
+    public static final int INDEX_INTERVAL = 256;
+
+    static final int MAGIC = 0x4B434150;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 17;
+    static final byte KIND_EVENT = 1;
+    static final byte KIND_LOG = 2;
+    static final String INDEX_SUFFIX = ".idx";
+
+    /* size of a mapped region, records larger than this get their own region */
+    private static final int REGION_SIZE = 1 << 20;
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+
+    // guarded by this
+    private MappedByteBuffer mRegion;
+    private long mRegionStart;
+    private long mPosition;
+    private long mRecords;
+    private long[] mIndex = new long[64];
+    private int mIndexSize;
+    private boolean mClosed;
+
+    /**
+     * Create a new capture, an existing file is overwritten.
+     * @param file the capture file
+     * @throws IOException if the file can not be created
+     */
+    public CaptureWriter(@NonNull File file) throws IOException {
+        mFile = file;
+        // the index of a previous capture does not match the new records
+        final File index = indexFile(file);
+        if (index.exists() && !index.delete()) throw new IOException("Could not delete " + index);
+        mRaf = new RandomAccessFile(file, "rw");
+        mRaf.setLength(0);
+        mChannel = mRaf.getChannel();
+        map(0, HEADER_SIZE);
+        mRegion.putInt(MAGIC).putInt(VERSION);
+        mPosition = HEADER_SIZE;
+    }
+
+    /* the index file next to a capture */
+    static File indexFile(File capture) {
+        return new File(capture.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Append a received event message.
+     * @param nanos {@link System#nanoTime()} when the message was received
+     * @param topic topic frame or null for a single part message
+     * @param topicLength length of the topic
+     * @param data payload frame
+     * @param length length of the payload
+     * @throws IOException if the capture was closed or could not be written
+     */
+    public synchronized void writeEvent(long nanos, @Nullable byte[] topic, int topicLength, @NonNull byte[] data, int length) throws IOException {
+        write(KIND_EVENT, nanos, topic, topic != null ? topicLength : -1, data, length);
+    }
+
+    /**
+     * Append a received log message.
+     * @param nanos {@link System#nanoTime()} when the message was received
+     * @param level the log level of the message
+     * @param json the log message
+     * @throws IOException if the capture was closed or could not be written
+     */
+    public synchronized void writeLog(long nanos, @NonNull String level, @NonNull String json) throws IOException {
+        final byte[] topic = level.getBytes(UTF8);
+        final byte[] data = json.getBytes(UTF8);
+        write(KIND_LOG, nanos, topic, topic.length, data, data.length);
+    }
+
+    private void write(byte kind, long nanos, byte[] topic, int topicLength, byte[] data, int length) throws IOException {
+        if (mClosed) throw new IOException("Capture is closed");
+        final int size = RECORD_HEADER_SIZE + Math.max(topicLength, 0) + length;
+        if (mPosition + size > mRegionStart + mRegion.capacity()) {
+            map(mPosition, size);
+        }
+        if (mRecords % INDEX_INTERVAL == 0) index(nanos, mPosition);
+        mRegion.putLong(nanos).put(kind).putInt(topicLength).putInt(length);
+        if (topicLength > 0) mRegion.put(topic, 0, topicLength);
+        mRegion.put(data, 0, length);
+        mPosition += size;
+        mRecords++;
+    }
+
+    private void map(long position, int size) throws IOException {
+        mRegionStart = position;
+        mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(size, REGION_SIZE));
+    }
+
+    private void index(long nanos, long offset) {
+        if (mIndexSize + 2 > mIndex.length) {
+            final long[] index = new long[mIndex.length * 2];
+            System.arraycopy(mIndex, 0, index, 0, mIndexSize);
+            mIndex = index;
+        }
+        mIndex[mIndexSize++] = nanos;
+        mIndex[mIndexSize++] = offset;
+    }
+
+    /**
+     * Number of written records.
+     * @return number of records
+     */
+    public synchronized long getRecordCount() {
+        return mRecords;
+    }
+
+    /**
+     * Size of the capture.
+     * @return written bytes including the header
+     */
+    public synchronized long getSize() {
+        return mPosition;
+    }
+
+    /**
+     * Finish the capture: cut the file to the written size and write the index.
+     * @throws IOException if the capture could not be finished
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            mRegion.force();
+            mRegion = null;
+            // the mapped regions extend the file beyond the written records
+            mChannel.truncate(mPosition);
+        } finally {
+            mRaf.close();
+        }
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile(mFile))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mIndexSize / 2);
+            for (int i = 0; i < mIndexSize; ++i) out.writeLong(mIndex[i]);
+        } finally {
+            out.close();
+        }
+    }
+}
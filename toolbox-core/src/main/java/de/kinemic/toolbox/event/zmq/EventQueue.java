@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
+
+/**
+ * A bounded, lock free single producer / single consumer queue for {@link PublisherEvent}s.
+ * It decouples the receiving thread (producer) from the thread which handles the events (consumer),
+ * so a slow consumer does not stall the socket.
+ * The {@link Policy} decides what happens if the queue is full.
+ *
+ * {@link #offer(PublisherEvent)} must only be called from one thread and {@link #poll()} from
+ * one other thread, the statistics can be read from any thread.
+ */
+public final class EventQueue {
+
+    /**
+     * What to do with a new event if the queue is full.
+     */
+    public enum Policy {
+        /** Wait for the consumer, at most {@link #MAX_BLOCK_MILLIS}, then drop the new event. */
+        BLOCK,
+        /** Drop the oldest queued event to make room for the new one. */
+        DROP_OLDEST,
+        /** Drop the new event. */
+        DROP_NEWEST,
+        /**
+         * Only deliver the latest queued event of the conflated types (see {@link #setConflated}),
+         * older ones are skipped. Drops the oldest event if the queue is still full.
+         */
+        CONFLATE
+    }
+
+    /** Maximum time the producer waits with {@link Policy#BLOCK}, protects the receiving thread if the consumer is gone. */
+    public static final long MAX_BLOCK_MILLIS = 1000;
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Policy mPolicy;
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicReferenceArray<PublisherEvent> mSlots;
+    /* System.nanoTime() when the event in the slot was offered, published together with the slot */
+    private final long[] mStamps;
+
+    /* next position to read, advanced by the consumer and by the producer when dropping the oldest */
+    private final AtomicLong mHead = new AtomicLong();
+    /* next position to write, only advanced by the producer */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /* position of the latest queued event per conflated type */
+    private final AtomicLongArray mLatest;
+    private final boolean[] mConflated;
+
+    private final AtomicLong mDropped = new AtomicLong();
+    // counts drops per type, set by the listener before the queue is used
+    private volatile EventMetrics mMetrics;
+    private final AtomicLong mConflatedCount = new AtomicLong();
+
+    // written from the consumer thread only
+    private volatile long mPolled;
+    private volatile long mWaitTotalNanos;
+    private volatile long mWaitMaxNanos;
+
+    /**
+     * Create a new queue. All slots are allocated up front.
+     * @param capacity minimum capacity, rounded up to the next power of two
+     * @param policy what to do if the queue is full
+     */
+    public EventQueue(int capacity, @NonNull Policy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mPolicy = policy;
+        mSlots = new AtomicReferenceArray<>(size);
+        mStamps = new long[size];
+
+        final int types = PublisherEvent.Type.values().length;
+        mLatest = new AtomicLongArray(types);
+        for (int i = 0; i < types; ++i) mLatest.set(i, -1);
+        mConflated = new boolean[types];
+        mConflated[PublisherEvent.Type.Heartbeat.ordinal()] = true;
+    }
+
+    /**
+     * Set whether events of a type are conflated with {@link Policy#CONFLATE}.
+     * Only {@link PublisherEvent.Type#Heartbeat} is conflated by default. Air mouse toggles are never
+     * conflated. Has to be called before the queue is used.
+     * @param type event type
+     * @param conflated true to only deliver the latest queued event of this type
+     */
+    public void setConflated(@NonNull PublisherEvent.Type type, boolean conflated) {
+        mConflated[type.ordinal()] = conflated;
+    }
+
+    /* count dropped events in the metrics of a listener */
+    void setMetrics(EventMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    private void dropped(PublisherEvent event) {
+        mDropped.incrementAndGet();
+        final EventMetrics metrics = mMetrics;
+        if (metrics != null && event != null) metrics.recordDropped(event.type);
+    }
+
+    /**
+     * Add an event, called from the producer thread.
+     * @param event the event
+     * @return false if the event was dropped
+     */
+    public boolean offer(@NonNull PublisherEvent event) {
+        final long tail = mTail.get();
+        long blockedSince = 0;
+        while (tail - mHead.get() >= mCapacity) {
+            switch (mPolicy) {
+                case DROP_NEWEST:
+                    dropped(event);
+                    return false;
+                case BLOCK:
+                    final long now = System.nanoTime();
+                    if (blockedSince == 0) {
+                        blockedSince = now;
+                    } else if (now - blockedSince > TimeUnit.MILLISECONDS.toNanos(MAX_BLOCK_MILLIS)) {
+                        dropped(event);
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+                default:
+                    // DROP_OLDEST, CONFLATE: take the oldest slot unless the consumer just did
+                    final long head = mHead.get();
+                    final PublisherEvent oldest = mSlots.get((int) (head & mMask));
+                    if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+                        dropped(oldest);
+                    }
+            }
+        }
+
+        mStamps[(int) (tail & mMask)] = System.nanoTime();
+        mSlots.set((int) (tail & mMask), event);
+        if (mPolicy == Policy.CONFLATE && isConflated(event)) {
+            mLatest.set(event.type.ordinal(), tail);
+        }
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Take the next event, called from the consumer thread.
+     * @return the next event or null if the queue is empty
+     */
+    public @Nullable PublisherEvent poll() {
+        while (true) {
+            final long head = mHead.get();
+            if (head >= mTail.get()) return null;
+            final PublisherEvent event = mSlots.get((int) (head & mMask));
+            final long stamp = mStamps[(int) (head & mMask)];
+            // the slot is only valid if the producer did not drop it in the meantime
+            if (!mHead.compareAndSet(head, head + 1)) continue;
+            // release the event, unless the producer already reused the slot
+            mSlots.compareAndSet((int) (head & mMask), event, null);
+
+            if (mPolicy == Policy.CONFLATE && isConflated(event)
+                    && mLatest.get(event.type.ordinal()) > head) {
+                // a newer event of this type is queued
+                mConflatedCount.incrementAndGet();
+                continue;
+            }
+            final long wait = System.nanoTime() - stamp;
+            mPolled++;
+            mWaitTotalNanos += wait;
+            if (wait > mWaitMaxNanos) mWaitMaxNanos = wait;
+            return event;
+        }
+    }
+
+    /* drops all queued events without counting them, only while no producer or consumer uses the queue */
+    void clear() {
+        final long tail = mTail.get();
+        for (long i = mHead.get(); i < tail; ++i) {
+            mSlots.set((int) (i & mMask), null);
+        }
+        mHead.set(tail);
+    }
+
+    private boolean isConflated(PublisherEvent event) {
+        if (!mConflated[event.type.ordinal()]) return false;
+        if (event.type != PublisherEvent.Type.MouseEvent) return true;
+        try {
+            return event.asMouseEvent().type == PublisherEvent.MouseEvent.Type.Move;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Number of queued events.
+     * @return current queue depth
+     */
+    public int size() {
+        final long size = mTail.get() - mHead.get();
+        return size < 0 ? 0 : (int) Math.min(size, mCapacity);
+    }
+
+    /**
+     * Whether no events are queued.
+     * @return true if the queue is empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Capacity of the queue.
+     * @return number of slots
+     */
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * The policy used if the queue is full.
+     * @return the {@link Policy}
+     */
+    public @NonNull Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Number of events dropped because the queue was full.
+     * @return dropped events
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Number of events skipped because a newer event of the same type was queued.
+     * @return conflated events
+     */
+    public long getConflatedCount() {
+        return mConflatedCount.get();
+    }
+
+    /**
+     * Number of events taken from the queue.
+     * @return polled events
+     */
+    public long getPolledCount() {
+        return mPolled;
+    }
+
+    /**
+     * Average time the polled events spent in the queue.
+     * @return average wait time in nanoseconds, 0 if no event was polled
+     */
+    public long getAverageWaitNanos() {
+        final long polled = mPolled;
+        return polled == 0 ? 0 : mWaitTotalNanos / polled;
+    }
+
+    /**
+     * Longest time a polled event spent in the queue.
+     * @return maximum wait time in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return mWaitMaxNanos;
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.json.JSONException;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.kinemic.toolbox.event.MouseEventListener;
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.PublisherEventDecoder;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
+import de.kinemic.toolbox.event.metrics.LossTracker;
+
+import static org.zeromq.ZSocket.UTF8;
+
+/**
+ * The receive path of a listener, independent of its threads and sockets: receives event messages
+ * from a socket into reused buffers, records them, filters them by topic, decodes them and
+ * delivers them in batches to {@link #dispatchEvents(List)}.
+ *
+ * Used from one thread (the receiving thread), options can be changed from any thread.
+ */
+abstract class EventReceiver {
+
+    /* default maximum number of messages delivered together */
+    static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    // accessed from the receiving thread
+    private final PublisherEventDecoder mDecoder = new PublisherEventDecoder();
+    private final Frame mFrame = new Frame();
+    private final Frame mPayloadFrame = new Frame();
+    private byte[][] mTopicBytes = new byte[0][];
+    private static final byte[] HEARTBEAT_TOPIC = PublisherEvent.Type.Heartbeat.jsonType.getBytes(UTF8);
+    private static final byte[] ACTIVATION_TOPIC = PublisherEvent.Type.Activation.jsonType.getBytes(UTF8);
+    private final boolean[] mAcceptedTypes = new boolean[PublisherEvent.Type.values().length];
+
+    private final ArrayList<PublisherEvent> mBatch = new ArrayList<>();
+    private long mReceivedNanos;
+
+    private volatile MouseEventListener mMouseEventListener;
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile boolean mTimestamps;
+    private volatile CaptureWriter mRecorder;
+    private volatile HealthMonitor mHealthMonitor;
+    private volatile IdleMode mIdleMode;
+    private volatile boolean mLossEstimation;
+
+    private final PublisherSource mSource;
+    private final EventMetrics mMetrics;
+    private final LossTracker mLossTracker;
+
+    // written from the receiving thread only
+    private volatile long mMessageCount;
+    private volatile long mParseCount;
+
+    /* receives the publisher of a listener, with own metrics */
+    EventReceiver() {
+        mSource = null;
+        mMetrics = new EventMetrics();
+        mLossTracker = new LossTracker();
+    }
+
+    /* receives an additional publisher, with the metrics and rate limit of the source */
+    EventReceiver(PublisherSource source) {
+        mSource = source;
+        mMetrics = source.getMetrics();
+        mLossTracker = source.getLossTracker();
+        mDecoder.setSource(source.getName());
+    }
+
+    /* delivers a batch of events, the list is reused afterwards */
+    abstract void dispatchEvents(List<PublisherEvent> events);
+
+    /* delivers a log message */
+    abstract void dispatchLog(String level, String json);
+
+    /* called when a message could not be parsed, after it was counted */
+    void onParseFailure(byte[] data, int length, JSONException e) {
+    }
+
+    /* called when recording failed, recording is stopped afterwards */
+    void onRecordingFailure(IOException e) {
+    }
+
+    /* the additional publisher this receiver receives, null for the publisher of the listener */
+    PublisherSource getSource() {
+        return mSource;
+    }
+
+    /* called from the receiving thread, the name events are tagged with */
+    void setSourceName(String name) {
+        mDecoder.setSource(name);
+    }
+
+    void setMouseEventListener(MouseEventListener listener) {
+        mMouseEventListener = listener;
+    }
+
+    MouseEventListener getMouseEventListener() {
+        return mMouseEventListener;
+    }
+
+    void setMaxBatchSize(int maxBatchSize) {
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    void setTimestamps(boolean timestamps) {
+        mTimestamps = timestamps;
+    }
+
+    boolean isTimestamps() {
+        return mTimestamps;
+    }
+
+    void setRecorder(CaptureWriter recorder) {
+        mRecorder = recorder;
+    }
+
+    void setHealthMonitor(HealthMonitor monitor) {
+        mHealthMonitor = monitor;
+    }
+
+    HealthMonitor getHealthMonitor() {
+        return mHealthMonitor;
+    }
+
+    void setIdleMode(IdleMode idleMode) {
+        mIdleMode = idleMode;
+    }
+
+    IdleMode getIdleMode() {
+        return mIdleMode;
+    }
+
+    void setLossEstimation(boolean lossEstimation) {
+        mLossEstimation = lossEstimation;
+    }
+
+    boolean isLossEstimation() {
+        return mLossEstimation;
+    }
+
+    EventMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    LossTracker getLossTracker() {
+        return mLossTracker;
+    }
+
+    long getMessageCount() {
+        return mMessageCount;
+    }
+
+    long getParseCount() {
+        return mParseCount;
+    }
+
+    /* whether events of a type pass the topic filter, see applyTopics */
+    boolean accepts(PublisherEvent.Type type) {
+        return mAcceptedTypes[type.ordinal()];
+    }
+
+    /* applies a topic snapshot to the received messages, "" accepts all */
+    void applyTopics(String[] topics) {
+        final byte[][] topicBytes = new byte[topics.length][];
+        for (int i = 0; i < topics.length; ++i) {
+            topicBytes[i] = topics[i].getBytes(UTF8);
+        }
+        mTopicBytes = topicBytes;
+        for (PublisherEvent.Type type : PublisherEvent.Type.values()) {
+            mAcceptedTypes[type.ordinal()] = acceptsType(topics, type);
+        }
+    }
+
+    /* single-frame messages pass if a topic would match the type name as multipart topic */
+    private static boolean acceptsType(String[] topics, PublisherEvent.Type type) {
+        for (String topic : topics) {
+            if (type.jsonType.startsWith(topic)) return true;
+        }
+        return false;
+    }
+
+    /* drains all ready messages, up to the batch size, and delivers them together */
+    void receiveEvents(ZMQ.Socket socket, int flags) {
+        final int maxBatchSize = mMaxBatchSize;
+        int received = 0;
+        while (received < maxBatchSize && receiveEvent(socket, received == 0 ? flags : ZMQ.DONTWAIT)) {
+            ++received;
+        }
+        flushBatch();
+    }
+
+    /* returns false if no message was ready */
+    private boolean receiveEvent(ZMQ.Socket socket, int flags) {
+        // frames are read into reused buffers and decoded from the bytes
+        final Frame frame = mFrame;
+        if (!frame.receive(socket, flags)) return false;
+        final long receivedNanos = System.nanoTime();
+        int bytes = frame.length;
+        if (frame.more) {
+            // two part messages indicate first part is topic
+            final Frame payload = mPayloadFrame;
+            if (!payload.receive(socket, 0)) {
+                mMessageCount++;
+                mMetrics.recordMessage(bytes);
+                return true;
+            }
+            bytes += payload.length;
+            processEvent(frame.data, frame.length, payload.data, payload.length, receivedNanos);
+            while (payload.more && frame.receive(socket, 0)) {
+                // discard unexpected additional frames
+                bytes += frame.length;
+                payload.more = frame.more;
+            }
+        } else {
+            processEvent(null, 0, frame.data, frame.length, receivedNanos);
+        }
+        mMetrics.recordMessage(bytes);
+        return true;
+    }
+
+    /* processes a message which was not received from a socket (i.e. replayed), without delivering it */
+    void receiveEvent(byte[] topic, int topicLength, byte[] data, int length, long receivedNanos) {
+        // both stamps are in the time of the replay, decoding takes no time there
+        mDecoder.setDecodedNanos(stamp(receivedNanos));
+        processEvent(topic, topicLength, data, length, receivedNanos);
+        mDecoder.setDecodedNanos(0);
+        mMetrics.recordMessage(topic != null ? topicLength + length : length);
+    }
+
+    /* 0 means not stamped, a clock can be at 0 though (i.e. a new VirtualClock) */
+    static long stamp(long nanos) {
+        return nanos != 0 ? nanos : 1;
+    }
+
+    /* topic is null for single part messages */
+    private void processEvent(byte[] topic, int topicLength, byte[] data, int length, long receivedNanos) {
+        mMessageCount++;
+        mReceivedNanos = receivedNanos;
+        mDecoder.setReceivedNanos(mTimestamps ? stamp(receivedNanos) : 0);
+        final CaptureWriter recorder = mRecorder;
+        if (recorder != null) {
+            try {
+                recorder.writeEvent(receivedNanos, topic, topicLength, data, length);
+            } catch (IOException e) {
+                mRecorder = null;
+                onRecordingFailure(e);
+            }
+        }
+        final MouseEventListener moveListener = mMouseEventListener != null ? mOrderedMoveListener : null;
+        if (topic != null) {
+            if (matchesTopic(topic, topicLength)) {
+                addEvent(decode(data, length, moveListener));
+            } else {
+                if (isObserved(topic, topicLength)) {
+                    // subscribed for the health monitor, idle mode or loss estimation only
+                    final PublisherEvent event = decode(data, length, null);
+                    if (event != null) {
+                        mLossTracker.record(event, mReceivedNanos);
+                        observe(event);
+                    }
+                }
+                mMetrics.recordFiltered();
+            }
+        } else {
+            final PublisherEvent base = decode(data, length,
+                    mAcceptedTypes[PublisherEvent.Type.MouseEvent.ordinal()] ? moveListener : null);
+            if (base != null && !mAcceptedTypes[base.type.ordinal()]) {
+                mLossTracker.record(base, mReceivedNanos);
+                observe(base);
+                mMetrics.recordFiltered();
+            } else {
+                addEvent(base);
+            }
+        }
+    }
+
+    /* records and delivers a log message */
+    void receiveLog(String level, String json, long receivedNanos) {
+        final CaptureWriter recorder = mRecorder;
+        if (recorder != null) {
+            try {
+                recorder.writeLog(receivedNanos, level, json);
+            } catch (IOException e) {
+                mRecorder = null;
+                onRecordingFailure(e);
+            }
+        }
+        dispatchLog(level, json);
+    }
+
+    /* null if the event failed or was passed to the move listener */
+    private void addEvent(PublisherEvent event) {
+        if (event != null) {
+            mLossTracker.record(event, mReceivedNanos);
+            observe(event);
+            mMetrics.recordEvent(event.type);
+            if (!isContinuous(event) || !isLimited(event.type)) mBatch.add(event);
+        }
+    }
+
+    /* whether a filtered out topic is needed by the health monitor, idle mode or loss estimation */
+    private boolean isObserved(byte[] topic, int length) {
+        if (startsWith(topic, length, HEARTBEAT_TOPIC)) {
+            return mHealthMonitor != null || mIdleMode != null || mLossEstimation;
+        }
+        return mIdleMode != null && startsWith(topic, length, ACTIVATION_TOPIC);
+    }
+
+    /* passes heartbeats to the health monitor and the activity to the idle mode */
+    private void observe(PublisherEvent event) {
+        final HealthMonitor monitor = mHealthMonitor;
+        final IdleMode idleMode = mIdleMode;
+        try {
+            if (event.type == PublisherEvent.Type.Heartbeat && (monitor != null || idleMode != null)) {
+                final PublisherEvent.Heartbeat heartbeat = event.asHeartbeat();
+                if (monitor != null) monitor.recordHeartbeat(heartbeat, mReceivedNanos);
+                if (idleMode != null) idleMode.recordActive(heartbeat.active, mReceivedNanos);
+            } else if (event.type == PublisherEvent.Type.Activation && idleMode != null) {
+                idleMode.recordActive(event.asActivation().active, mReceivedNanos);
+            }
+        } catch (JSONException e) {
+            mMetrics.recordParseFailure();
+        }
+    }
+
+    /* only the high rate streams (air mouse moves and writing) are rate limited, control events always pass */
+    private static boolean isContinuous(PublisherEvent event) {
+        if (event.type == PublisherEvent.Type.Writing) return true;
+        if (event.type != PublisherEvent.Type.MouseEvent) return false;
+        try {
+            return event.asMouseEvent().type == PublisherEvent.MouseEvent.Type.Move;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /* whether a continuous event exceeds the rate limit of the source, it is counted as dropped */
+    private boolean isLimited(PublisherEvent.Type type) {
+        final RateLimiter limiter = mSource != null ? mSource.getRateLimiter() : null;
+        if (limiter == null || limiter.tryAcquire(mReceivedNanos)) return false;
+        mMetrics.recordDropped(type);
+        return true;
+    }
+
+    /* delivers the pending events */
+    void flushBatch() {
+        if (!mBatch.isEmpty()) {
+            dispatchEvents(mBatch);
+            mBatch.clear();
+        }
+    }
+
+    /* delivers pending events first, so moves keep their order relative to other events */
+    private final MouseEventListener mOrderedMoveListener = new MouseEventListener() {
+        @Override
+        public void onMouseMove(double dx, double dy, boolean palmVertical) {
+            mMetrics.recordEvent(PublisherEvent.Type.MouseEvent);
+            mLossTracker.record(PublisherEvent.Type.MouseEvent, mDecoder.getSequence(), mReceivedNanos);
+            if (isLimited(PublisherEvent.Type.MouseEvent)) return;
+            flushBatch();
+            final MouseEventListener listener = mMouseEventListener;
+            if (listener != null) listener.onMouseMove(dx, dy, palmVertical);
+        }
+    };
+
+    /* matches the same way zmq matches subscriptions */
+    private boolean matchesTopic(byte[] topic, int length) {
+        for (byte[] subscription : mTopicBytes) {
+            if (startsWith(topic, length, subscription)) return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix) {
+        if (prefix.length > length) return false;
+        for (int i = 0; i < prefix.length; ++i) {
+            if (data[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private PublisherEvent decode(byte[] data, int length, MouseEventListener moveListener) {
+        mParseCount++;
+        try {
+            return mDecoder.decode(data, 0, length, moveListener);
+        } catch (JSONException e) {
+            mMetrics.recordParseFailure();
+            onParseFailure(data, length, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.zeromq.ZMQ;
+
+import zmq.Msg;
+
+/**
+ * A reusable receive buffer for a single zmq frame.
+ * The buffer only grows, so receiving a steady stream of similar messages does not allocate.
+ * Not thread safe, used from the actor thread.
+ */
+final class Frame {
+    private static final int INITIAL_CAPACITY = 512;
+
+    /** The frame data, valid from 0 to {@link #length}. */
+    byte[] data = new byte[INITIAL_CAPACITY];
+
+    /** Length of the last received frame. */
+    int length;
+
+    /** Whether more frames of the same message follow. */
+    boolean more;
+
+    /**
+     * Receive the next frame from the socket into this buffer.
+     * @param socket socket to receive from
+     * @param flags zmq receive flags, i.e. {@link ZMQ#DONTWAIT}
+     * @return false if no frame was received
+     */
+    boolean receive(ZMQ.Socket socket, int flags) {
+        final Msg msg = socket.base().recv(flags);
+        if (msg == null) return false;
+        length = msg.size();
+        if (length > data.length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        msg.getBytes(0, data, 0, length);
+        more = msg.hasMore();
+        return true;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * Watches the connection to the Publisher through its {@link PublisherEvent.Type#Heartbeat}s.
+ * The Publisher sends heartbeats periodically, if none arrives within the stall timeout the
+ * connection is stalled (the Publisher is gone or the network is down) and the listener
+ * reconnects its sockets, with a growing delay between the attempts. A heartbeat which reports
+ * no sensor message for longer than the sensor timeout means the sensor is lost.
+ *
+ * Set it with {@link PublisherJsonListener#setHealthMonitor(HealthMonitor)}, the listener then
+ * receives heartbeats even if they are not in its event types.
+ * Updated from the receiving thread, can be read from any thread.
+ */
+public final class HealthMonitor {
+
+    /**
+     * State of the connection.
+     */
+    public enum State {
+        /** The listener is not running or no heartbeat was received yet. */
+        DISCONNECTED,
+        /** Heartbeats arrive and the sensor sends data. */
+        CONNECTED,
+        /** No heartbeat arrived within the stall timeout, the listener reconnects. */
+        STALLED,
+        /** Heartbeats arrive, but the sensor did not send data within the sensor timeout. */
+        SENSOR_LOST
+    }
+
+    /**
+     * Receives the state changes of a {@link HealthMonitor}, called on the receiving thread.
+     */
+    public interface Listener {
+        /**
+         * The state of the connection changed.
+         * @param previous the previous state
+         * @param state the new state
+         */
+        void onStateChanged(@NonNull State previous, @NonNull State state);
+    }
+
+    /** Default for {@link #setStallTimeout(long)}. */
+    public static final long DEFAULT_STALL_TIMEOUT_MILLIS = 3000;
+    /** Default for {@link #setSensorTimeout(long)}. */
+    public static final long DEFAULT_SENSOR_TIMEOUT_SECONDS = 5;
+    /** Default first delay of {@link #setReconnectBackoff(long, long)}. */
+    public static final long DEFAULT_RECONNECT_MILLIS = 1000;
+    /** Default maximum delay of {@link #setReconnectBackoff(long, long)}. */
+    public static final long DEFAULT_MAX_RECONNECT_MILLIS = 30000;
+
+    /* weight of a new interval for the average heartbeat interval */
+    private static final double INTERVAL_WEIGHT = 0.125;
+
+    private volatile long mStallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_STALL_TIMEOUT_MILLIS);
+    private volatile long mSensorTimeoutSeconds = DEFAULT_SENSOR_TIMEOUT_SECONDS;
+    private volatile long mReconnectNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RECONNECT_MILLIS);
+    private volatile long mMaxReconnectNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_RECONNECT_MILLIS);
+    private volatile Listener mListener;
+
+    // written by the receiving thread only
+    private boolean mRunning;
+    private long mLastHeartbeatNanos;
+    private long mStalledNanos;
+    private long mNextReconnectNanos;
+    private long mBackoffNanos;
+
+    private volatile State mState = State.DISCONNECTED;
+    private volatile PublisherEvent.Heartbeat mLastHeartbeat;
+    private volatile double mIntervalNanos;
+    private volatile long mMaxIntervalNanos;
+    private volatile long mHeartbeats;
+    private volatile long mStalls;
+    private volatile long mSensorLosses;
+    private volatile long mReconnects;
+    private volatile long mLastDetectNanos = -1;
+    private volatile long mMaxDetectNanos = -1;
+    private volatile long mLastRecoverNanos = -1;
+    private volatile long mMaxRecoverNanos = -1;
+
+    /**
+     * Set the time without heartbeat after which the connection is stalled.
+     * Should be a few heartbeat intervals of the Publisher, shorter values detect a stall faster but
+     * may reconnect needlessly. Can be changed at any time.
+     * Default is {@link #DEFAULT_STALL_TIMEOUT_MILLIS}.
+     * @param millis stall timeout in milliseconds
+     */
+    public void setStallTimeout(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("millis must be positive");
+        mStallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Stall timeout, see {@link #setStallTimeout(long)}.
+     * @return stall timeout in milliseconds
+     */
+    public long getStallTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(mStallTimeoutNanos);
+    }
+
+    /**
+     * Set the time without sensor data, as reported by {@link PublisherEvent.Heartbeat#last},
+     * after which the sensor is lost. Can be changed at any time.
+     * Default is {@link #DEFAULT_SENSOR_TIMEOUT_SECONDS}.
+     * @param seconds sensor timeout in seconds
+     */
+    public void setSensorTimeout(long seconds) {
+        if (seconds <= 0) throw new IllegalArgumentException("seconds must be positive");
+        mSensorTimeoutSeconds = seconds;
+    }
+
+    /**
+     * Set the delays between reconnects while the connection is stalled. The first reconnect is done
+     * when the stall is detected, the delay starts at millis and doubles up to maxMillis.
+     * Can be changed at any time, applies from the next stall.
+     * Default is {@link #DEFAULT_RECONNECT_MILLIS} up to {@link #DEFAULT_MAX_RECONNECT_MILLIS}.
+     * @param millis first delay in milliseconds
+     * @param maxMillis maximum delay in milliseconds
+     */
+    public void setReconnectBackoff(long millis, long maxMillis) {
+        if (millis <= 0) throw new IllegalArgumentException("millis must be positive");
+        if (maxMillis < millis) throw new IllegalArgumentException("maxMillis must be at least millis");
+        mReconnectNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        mMaxReconnectNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /**
+     * Set a listener for the state changes. Can be changed at any time.
+     * @param listener the listener or null
+     */
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * The current state of the connection.
+     * @return the state
+     */
+    public @NonNull State getState() {
+        return mState;
+    }
+
+    /**
+     * The last received heartbeat.
+     * @return the heartbeat or null if none was received
+     */
+    public @Nullable PublisherEvent.Heartbeat getLastHeartbeat() {
+        return mLastHeartbeat;
+    }
+
+    /**
+     * Number of received heartbeats.
+     * @return received heartbeats
+     */
+    public long getHeartbeatCount() {
+        return mHeartbeats;
+    }
+
+    /**
+     * Moving average of the time between two heartbeats.
+     * @return average interval in nanoseconds, 0 before the second heartbeat
+     */
+    public long getHeartbeatIntervalNanos() {
+        return (long) mIntervalNanos;
+    }
+
+    /**
+     * Longest time between two heartbeats.
+     * @return maximum interval in nanoseconds, 0 before the second heartbeat
+     */
+    public long getMaxHeartbeatIntervalNanos() {
+        return mMaxIntervalNanos;
+    }
+
+    /**
+     * Number of times the connection stalled.
+     * @return number of stalls
+     */
+    public long getStallCount() {
+        return mStalls;
+    }
+
+    /**
+     * Number of times the sensor was lost.
+     * @return number of sensor losses
+     */
+    public long getSensorLostCount() {
+        return mSensorLosses;
+    }
+
+    /**
+     * Number of reconnects done because of stalls.
+     * @return number of reconnects
+     */
+    public long getReconnectCount() {
+        return mReconnects;
+    }
+
+    /**
+     * Time to detect the last stall: from the last heartbeat (or the start) until the stall was detected.
+     * @return time in nanoseconds, -1 if there was no stall
+     */
+    public long getLastDetectNanos() {
+        return mLastDetectNanos;
+    }
+
+    /**
+     * Longest time to detect a stall, see {@link #getLastDetectNanos()}.
+     * @return time in nanoseconds, -1 if there was no stall
+     */
+    public long getMaxDetectNanos() {
+        return mMaxDetectNanos;
+    }
+
+    /**
+     * Time to recover from the last stall: from the detection until the next heartbeat.
+     * @return time in nanoseconds, -1 if no stall was recovered
+     */
+    public long getLastRecoverNanos() {
+        return mLastRecoverNanos;
+    }
+
+    /**
+     * Longest time to recover from a stall, see {@link #getLastRecoverNanos()}.
+     * @return time in nanoseconds, -1 if no stall was recovered
+     */
+    public long getMaxRecoverNanos() {
+        return mMaxRecoverNanos;
+    }
+
+    /* called from the receiving thread when the listener connected, the stall timeout starts now */
+    void start(long nowNanos) {
+        mRunning = true;
+        mLastHeartbeatNanos = nowNanos;
+        setState(State.DISCONNECTED);
+    }
+
+    /* called from the receiving thread when the listener stops */
+    void stop() {
+        mRunning = false;
+        setState(State.DISCONNECTED);
+    }
+
+    /* called from the receiving thread for every heartbeat, also the ones which are filtered out */
+    void recordHeartbeat(@NonNull PublisherEvent.Heartbeat heartbeat, long receivedNanos) {
+        if (mHeartbeats > 0) {
+            final long interval = receivedNanos - mLastHeartbeatNanos;
+            if (interval > mMaxIntervalNanos) mMaxIntervalNanos = interval;
+            final double average = mIntervalNanos;
+            mIntervalNanos = average == 0 ? interval : average + (interval - average) * INTERVAL_WEIGHT;
+        }
+        mHeartbeats++;
+        mLastHeartbeat = heartbeat;
+        mLastHeartbeatNanos = receivedNanos;
+        if (mState == State.STALLED) {
+            final long recover = receivedNanos - mStalledNanos;
+            mLastRecoverNanos = recover;
+            if (recover > mMaxRecoverNanos) mMaxRecoverNanos = recover;
+        }
+        if (heartbeat.last >= mSensorTimeoutSeconds) {
+            if (mState != State.SENSOR_LOST) mSensorLosses++;
+            setState(State.SENSOR_LOST);
+        } else {
+            setState(State.CONNECTED);
+        }
+    }
+
+    /* called from the receiving thread, time until check(long) has to be called, -1 if not running */
+    long getTimeoutMillis(long nowNanos) {
+        if (!mRunning) return -1;
+        final long due = mState == State.STALLED ? mNextReconnectNanos : mLastHeartbeatNanos + mStallTimeoutNanos;
+        // rounded up, so the check is not done too early
+        return Math.max(0, (due - nowNanos + 999999) / 1000000);
+    }
+
+    /* called from the receiving thread, detects stalls, returns true if the listener should reconnect now */
+    boolean check(long nowNanos) {
+        if (!mRunning) return false;
+        if (mState != State.STALLED) {
+            if (nowNanos - mLastHeartbeatNanos < mStallTimeoutNanos) return false;
+            final long detect = nowNanos - mLastHeartbeatNanos;
+            mLastDetectNanos = detect;
+            if (detect > mMaxDetectNanos) mMaxDetectNanos = detect;
+            mStalls++;
+            mStalledNanos = nowNanos;
+            mNextReconnectNanos = nowNanos;
+            mBackoffNanos = mReconnectNanos;
+            setState(State.STALLED);
+        }
+        if (nowNanos - mNextReconnectNanos < 0) return false;
+        mReconnects++;
+        mNextReconnectNanos = nowNanos + mBackoffNanos;
+        mBackoffNanos = Math.min(mBackoffNanos * 2, mMaxReconnectNanos);
+        return true;
+    }
+
+    private void setState(State state) {
+        final State previous = mState;
+        if (previous == state) return;
+        mState = state;
+        final Listener listener = mListener;
+        if (listener != null) listener.onStateChanged(previous, state);
+    }
+
+    @Override
+    public String toString() {
+        return "HealthMonitor{state=" + mState
+                + " heartbeats=" + mHeartbeats
+                + " interval=" + TimeUnit.NANOSECONDS.toMillis(getHeartbeatIntervalNanos()) + "ms"
+                + " stalls=" + mStalls
+                + " reconnects=" + mReconnects
+                + " sensorLost=" + mSensorLosses
+                + " detect=" + TimeUnit.NANOSECONDS.toMillis(mLastDetectNanos) + "ms"
+                + " recover=" + TimeUnit.NANOSECONDS.toMillis(mLastRecoverNanos) + "ms}";
+    }
+}
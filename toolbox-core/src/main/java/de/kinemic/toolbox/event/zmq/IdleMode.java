@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * Sheds the high rate subscriptions of a listener while the Publisher is inactive.
+ * The Publisher reports its activity with {@link PublisherEvent.Type#Activation} events and in
+ * its {@link PublisherEvent.Type#Heartbeat}s. After it was inactive for the idle delay, the
+ * listener unsubscribes the idle event types (air mouse and writing by default), so no messages
+ * of these types are sent to it and its receiving thread sleeps. On activation the listener
+ * subscribes them again at once.
+ *
+ * Messages of the idle types which are sent right after the activation, before the Publisher
+ * got the subscription, are missed. The time from the activation until the subscriptions are
+ * applied is measured, see {@link #getLastResumeNanos()}.
+ *
+ * Set it with {@link PublisherJsonListener#setIdleMode(IdleMode)}, the listener then receives
+ * activations even if they are not in its event types. Requires the publisher to send the event
+ * type as topic frame. Updated from the receiving thread, can be read from any thread.
+ */
+public final class IdleMode {
+
+    /** Default for {@link #setIdleDelay(long)}. */
+    public static final long DEFAULT_IDLE_DELAY_MILLIS = 2000;
+
+    private volatile long mIdleDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_DELAY_MILLIS);
+    private volatile Set<String> mIdleTypes = new HashSet<>(Arrays.asList(
+            PublisherEvent.Type.MouseEvent.jsonType, PublisherEvent.Type.Writing.jsonType));
+
+    // written by the receiving thread only
+    private boolean mRunning;
+    private boolean mActive = true;
+    private long mInactiveNanos;
+    private long mActivatedNanos;
+    private long mIdleSinceNanos;
+
+    private volatile boolean mIdle;
+    private volatile long mIdleCount;
+    private volatile long mIdleTotalNanos;
+    private volatile long mLastResumeNanos = -1;
+    private volatile long mMaxResumeNanos = -1;
+
+    /**
+     * Set how long the Publisher has to be inactive before the subscriptions are shed.
+     * A delay avoids resubscribing for short pauses. Can be changed at any time.
+     * Default is {@link #DEFAULT_IDLE_DELAY_MILLIS}.
+     * @param millis idle delay in milliseconds, 0 to shed at once
+     */
+    public void setIdleDelay(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("millis must not be negative");
+        mIdleDelayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Set the event types which are unsubscribed while idle.
+     * Has to be called before the listener is started. Default is "MouseEvent" and "Writing".
+     * @param types list of event types like "MouseEvent"
+     */
+    public void setIdleEventTypes(@NonNull String... types) {
+        mIdleTypes = new HashSet<>(Arrays.asList(types));
+    }
+
+    /**
+     * Whether the subscriptions are currently shed.
+     * @return true while idle
+     */
+    public boolean isIdle() {
+        return mIdle;
+    }
+
+    /**
+     * Number of times the listener went idle.
+     * @return number of idle phases
+     */
+    public long getIdleCount() {
+        return mIdleCount;
+    }
+
+    /**
+     * Time spent idle, without the current idle phase.
+     * @return time in nanoseconds
+     */
+    public long getIdleTotalNanos() {
+        return mIdleTotalNanos;
+    }
+
+    /**
+     * Time from the last activation which ended an idle phase until the subscriptions were applied.
+     * @return time in nanoseconds, -1 if no idle phase ended
+     */
+    public long getLastResumeNanos() {
+        return mLastResumeNanos;
+    }
+
+    /**
+     * Longest time to resume, see {@link #getLastResumeNanos()}.
+     * @return time in nanoseconds, -1 if no idle phase ended
+     */
+    public long getMaxResumeNanos() {
+        return mMaxResumeNanos;
+    }
+
+    /* the event types which are unsubscribed while idle */
+    Set<String> getIdleEventTypes() {
+        return mIdleTypes;
+    }
+
+    /* called from the receiving thread when the listener connected, the Publisher counts as active */
+    void start() {
+        mRunning = true;
+        mActive = true;
+        mIdle = false;
+    }
+
+    /* called from the receiving thread when the listener stops */
+    void stop() {
+        mRunning = false;
+        mIdle = false;
+    }
+
+    /* called from the receiving thread for the activity reported by an activation or heartbeat */
+    void recordActive(boolean active, long receivedNanos) {
+        if (active == mActive) return;
+        mActive = active;
+        if (active) {
+            mActivatedNanos = receivedNanos;
+        } else {
+            mInactiveNanos = receivedNanos;
+        }
+    }
+
+    /* called from the receiving thread, time until update(long) has to be called, -1 if not needed */
+    long getTimeoutMillis(long nowNanos) {
+        if (!mRunning || mActive || mIdle) return -1;
+        // rounded up, so the update is not done too early
+        return Math.max(0, (mInactiveNanos + mIdleDelayNanos - nowNanos + 999999) / 1000000);
+    }
+
+    /* called from the receiving thread, returns true if the subscriptions have to be applied again */
+    boolean update(long nowNanos) {
+        if (!mRunning) return false;
+        if (mIdle && mActive) {
+            mIdle = false;
+            mIdleTotalNanos += nowNanos - mIdleSinceNanos;
+            final long resume = nowNanos - mActivatedNanos;
+            mLastResumeNanos = resume;
+            if (resume > mMaxResumeNanos) mMaxResumeNanos = resume;
+            return true;
+        }
+        if (!mIdle && !mActive && nowNanos - mInactiveNanos >= mIdleDelayNanos) {
+            mIdle = true;
+            mIdleCount++;
+            mIdleSinceNanos = nowNanos;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "IdleMode{idle=" + mIdle
+                + " count=" + mIdleCount
+                + " total=" + TimeUnit.NANOSECONDS.toMillis(mIdleTotalNanos) + "ms"
+                + " resume=" + TimeUnit.NANOSECONDS.toMicros(mLastResumeNanos) + "us}";
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request sent with a {@link PublisherRequester}, completes asynchronously.
+ * The Publisher does not answer requests, so a request is complete once it was handed to the
+ * socket ({@link State#SENT}) or could not be handed to it ({@link State#TIMED_OUT}, {@link State#CANCELLED}).
+ * The socket accepts requests even if no Publisher is connected, so {@link State#SENT} does not
+ * confirm delivery. {@link State#TIMED_OUT} is the only signal that the Publisher never acted on a request.
+ */
+public final class PublisherRequest {
+
+    /**
+     * Called once a request is complete.
+     */
+    public interface Callback {
+        /**
+         * Called on the sending thread, or on the calling thread of
+         * {@link #addCallback(Callback)} if the request is already complete.
+         * @param request the completed request
+         */
+        void onComplete(@NonNull PublisherRequest request);
+    }
+
+    /**
+     * State of a request.
+     */
+    public enum State {
+        /** Not sent yet. */
+        PENDING,
+        /** Handed to the socket, which does not mean that a Publisher received it. */
+        SENT,
+        /** Not handed to the socket within the timeout, the only signal that the Publisher never acted on it. */
+        TIMED_OUT,
+        /** Not sent because the requester was not running or was stopped. */
+        CANCELLED
+    }
+
+    private final long mId;
+    private final String mType;
+    private final String mJson;
+    private final long mCreatedNanos;
+    private final long mDeadlineNanos;
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    // guarded by this
+    private State mState = State.PENDING;
+    private List<Callback> mCallbacks;
+
+    PublisherRequest(long id, String type, String json, long timeoutMillis) {
+        mId = id;
+        mType = type;
+        mJson = json;
+        mCreatedNanos = System.nanoTime();
+        mDeadlineNanos = mCreatedNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Correlation id, unique per process.
+     * @return the id
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * Type of the request like "OrientationReset".
+     * @return the request type
+     */
+    public @NonNull String getType() {
+        return mType;
+    }
+
+    /**
+     * Current state.
+     * @return the {@link State}
+     */
+    public synchronized @NonNull State getState() {
+        return mState;
+    }
+
+    /**
+     * Whether the request is complete.
+     * @return true if the state is not {@link State#PENDING}
+     */
+    public synchronized boolean isDone() {
+        return mState != State.PENDING;
+    }
+
+    /**
+     * Wait until the request is complete. Don't call on the main thread.
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return the state, {@link State#PENDING} if the time elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public @NonNull State await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        mDone.await(timeout, unit);
+        return getState();
+    }
+
+    /**
+     * Add a callback which is called once the request is complete.
+     * @param callback the callback
+     * @return this request
+     */
+    public @NonNull PublisherRequest addCallback(@NonNull Callback callback) {
+        synchronized (this) {
+            if (mState == State.PENDING) {
+                if (mCallbacks == null) mCallbacks = new ArrayList<>(1);
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        callback.onComplete(this);
+        return this;
+    }
+
+    /* the serialized request */
+    String json() {
+        return mJson;
+    }
+
+    /* System.nanoTime() when the request was created */
+    long createdNanos() {
+        return mCreatedNanos;
+    }
+
+    private boolean isExpired(long nowNanos) {
+        return nowNanos - mDeadlineNanos > 0;
+    }
+
+    /* completes the request, returns false if it was already complete */
+    boolean complete(State state) {
+        final List<Callback> callbacks;
+        synchronized (this) {
+            if (mState != State.PENDING) return false;
+            mState = state;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+        }
+        mDone.countDown();
+        if (callbacks != null) {
+            for (Callback callback : callbacks) callback.onComplete(this);
+        }
+        return true;
+    }
+
+    /* milliseconds until the deadline, at least 1 so a check at that time finds the request expired */
+    long getRemainingMillis() {
+        final long remaining = mDeadlineNanos - System.nanoTime();
+        return remaining < 0 ? 1 : TimeUnit.NANOSECONDS.toMillis(remaining) + 1;
+    }
+
+    /* completes the request with TIMED_OUT if the deadline passed, returns true if it is done */
+    boolean completeIfExpired() {
+        if (isExpired(System.nanoTime())) complete(State.TIMED_OUT);
+        return isDone();
+    }
+
+    @Override
+    public String toString() {
+        return "PublisherRequest{" + mId + ", " + mType + ", " + getState() + "}";
+    }
+}
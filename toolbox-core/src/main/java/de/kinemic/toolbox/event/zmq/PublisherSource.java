@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
+import de.kinemic.toolbox.event.metrics.LossTracker;
+
+/**
+ * An additional Publisher a listener receives events from, i.e. one of several sensors of a
+ * multi sensor setup, see {@link PublisherJsonListener#addSource(PublisherSource)}.
+ * All publishers are received on the listener's one receiving thread, each with its own socket.
+ * Events are tagged with the name of their source (see {@link PublisherEvent#getSource()}) and
+ * keep their order within the source. Each source has its own metrics and an optional rate limit
+ * for its high rate streams.
+ */
+public final class PublisherSource {
+    private final String mName;
+    private final String mHost;
+    private final EventMetrics mMetrics = new EventMetrics();
+    private final LossTracker mLossTracker = new LossTracker();
+    private volatile RateLimiter mRateLimiter;
+
+    /**
+     * Create a source for a publisher.
+     * @param name name the events are tagged with, i.e. "left"
+     * @param host address of the publisher like "192.168.0.10", used with the endpoints of
+     *             the listener's {@link TransportConfig}
+     */
+    public PublisherSource(@NonNull String name, @NonNull String host) {
+        if (name == null) throw new IllegalArgumentException("name must not be null");
+        if (host == null) throw new IllegalArgumentException("host must not be null");
+        mName = name;
+        mHost = host;
+    }
+
+    /**
+     * Create a source for a publisher, named after its address.
+     * @param host address of the publisher like "192.168.0.10"
+     */
+    public PublisherSource(@NonNull String host) {
+        this(host, host);
+    }
+
+    /**
+     * The name events of this source are tagged with.
+     * @return the name
+     */
+    public @NonNull String getName() {
+        return mName;
+    }
+
+    /**
+     * The address of the publisher.
+     * @return the host
+     */
+    public @NonNull String getHost() {
+        return mHost;
+    }
+
+    /**
+     * Limit the events delivered from this source, so a flooding publisher does not starve the
+     * others. Only air mouse moves and writing events count against the rate, control events
+     * (gestures, activations, heartbeats, mouse toggles, ...) are always delivered.
+     * Events above the rate are dropped and counted in {@link EventMetrics#snapshot()}.
+     * Can be changed at any time.
+     * @param eventsPerSecond sustained rate, 0 for no limit (default)
+     * @param burst number of events which may exceed the rate at once
+     */
+    public void setRateLimit(double eventsPerSecond, int burst) {
+        if (eventsPerSecond < 0) throw new IllegalArgumentException("eventsPerSecond must not be negative");
+        mRateLimiter = eventsPerSecond > 0 ? new RateLimiter(eventsPerSecond, burst) : null;
+    }
+
+    /* the current rate limiter, null for none */
+    RateLimiter getRateLimiter() {
+        return mRateLimiter;
+    }
+
+    /**
+     * Counters of the messages and events received from this source.
+     * @return the metrics of this source
+     */
+    public @NonNull EventMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Accounting of events of this source which were lost before they were received.
+     * @return the loss tracker of this source
+     */
+    public @NonNull LossTracker getLossTracker() {
+        return mLossTracker;
+    }
+
+    @Override
+    public String toString() {
+        return "PublisherSource{" + mName + "@" + mHost + "}";
+    }
+}
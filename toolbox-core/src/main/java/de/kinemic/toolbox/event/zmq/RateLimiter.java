@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+/**
+ * Token bucket which limits the rate of events, allowing short bursts.
+ * Not thread safe, used from the receiving thread.
+ */
+final class RateLimiter {
+    private final double mPerNano;
+    private final double mBurst;
+
+    private double mTokens;
+    private long mLastNanos;
+    private boolean mStarted;
+
+    /**
+     * Create a rate limiter.
+     * @param perSecond sustained rate in events per second
+     * @param burst number of events which may pass at once, at least 1
+     */
+    RateLimiter(double perSecond, int burst) {
+        if (!(perSecond > 0)) throw new IllegalArgumentException("perSecond must be positive");
+        if (burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        mPerNano = perSecond / 1e9;
+        mBurst = burst;
+        mTokens = burst;
+    }
+
+    /**
+     * Take a token for an event.
+     * @param nowNanos {@link System#nanoTime()} of the event
+     * @return false if the event exceeds the rate and should be dropped
+     */
+    boolean tryAcquire(long nowNanos) {
+        if (mStarted) {
+            final long elapsed = nowNanos - mLastNanos;
+            if (elapsed > 0) mTokens = Math.min(mBurst, mTokens + elapsed * mPerNano);
+        }
+        mStarted = true;
+        mLastNanos = nowNanos;
+        if (mTokens < 1) return false;
+        mTokens -= 1;
+        return true;
+    }
+}
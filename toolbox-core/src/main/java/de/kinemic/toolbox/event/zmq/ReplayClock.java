@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time source of a {@link CaptureReplay}.
+ */
+public interface ReplayClock {
+
+    /**
+     * The system clock, {@link System#nanoTime()}, waiting sleeps.
+     */
+    ReplayClock SYSTEM = new ReplayClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepUntil(long nanos) throws InterruptedException {
+            long remaining;
+            while ((remaining = nanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            }
+        }
+    };
+
+    /**
+     * Current time.
+     * @return time in nanoseconds, only differences are meaningful
+     */
+    long nanoTime();
+
+    /**
+     * Wait until a time.
+     * @param nanos the time to wait for, see {@link #nanoTime()}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sleepUntil(long nanos) throws InterruptedException;
+}
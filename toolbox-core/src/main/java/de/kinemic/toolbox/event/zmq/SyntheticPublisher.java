@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.kinemic.toolbox.event.GestureId;
+import de.kinemic.toolbox.event.PublisherEvent;
+
+/**
+ * A stand-in for the Kinemic Publisher, for load and latency tests without a sensor.
+ * Binds the Publisher's endpoints (PUB sockets for events and logs, a SUB socket for requests,
+ * see {@link TransportConfig}) and sends synthetic {@link PublisherEvent}s at configurable rates.
+ *
+ * Each event type has its own stream with a rate and a burst size: every tick sends a burst of
+ * messages back to back, ticks are spaced so the average rate is kept. Messages are sent as a single
+ * json frame or, with {@link #setTopicFrames(boolean)}, as a topic frame followed by the json frame,
+ * like the Publisher does for subscriptions by type.
+ *
+ * Pure JVM, the publisher runs on its own thread. Rates and options can be changed at any time.
+ */
+public final class SyntheticPublisher {
+    private static final int TYPES = PublisherEvent.Type.values().length;
+    /* longest time the thread sleeps, so changed rates are picked up */
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final TransportConfig mConfig;
+    private final double[] mRates = new double[TYPES];
+    private final int[] mBursts = new int[TYPES];
+    private volatile double mLogRate;
+    private volatile boolean mTopicFrames;
+    private volatile boolean mSequenceNumbers;
+
+    private final AtomicLongArray mSent = new AtomicLongArray(TYPES);
+    private volatile long mLogsSent;
+    private volatile long mRequests;
+    private volatile String mLastRequest;
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * Create a publisher binding the default tcp ports on all interfaces.
+     */
+    public SyntheticPublisher() {
+        this(TransportConfig.DEFAULT);
+    }
+
+    /**
+     * Create a publisher.
+     * @param config the endpoints to bind, endpoints derived from ports are bound on all interfaces
+     */
+    public SyntheticPublisher(@NonNull TransportConfig config) {
+        mConfig = config;
+        for (int i = 0; i < TYPES; ++i) mBursts[i] = 1;
+    }
+
+    /**
+     * Set the rate of an event stream.
+     * @param type the event type
+     * @param messagesPerSecond average number of messages per second, 0 to stop the stream
+     * @param burst number of messages sent back to back per tick, at least 1
+     */
+    public synchronized void setRate(@NonNull PublisherEvent.Type type, double messagesPerSecond, int burst) {
+        if (messagesPerSecond < 0) throw new IllegalArgumentException("messagesPerSecond must not be negative");
+        if (burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        mRates[type.ordinal()] = messagesPerSecond;
+        mBursts[type.ordinal()] = burst;
+    }
+
+    /**
+     * Set the rate of the log stream, messages with level "info".
+     * @param messagesPerSecond average number of log messages per second, 0 for none
+     */
+    public void setLogRate(double messagesPerSecond) {
+        if (messagesPerSecond < 0) throw new IllegalArgumentException("messagesPerSecond must not be negative");
+        mLogRate = messagesPerSecond;
+    }
+
+    /**
+     * Send events as topic frame and json frame instead of a single json frame.
+     * @param topicFrames true for two frame messages
+     */
+    public void setTopicFrames(boolean topicFrames) {
+        mTopicFrames = topicFrames;
+    }
+
+    /**
+     * Number the events per type with a "seq" field, see {@link PublisherEvent#getSequence()}.
+     * @param sequenceNumbers true to add sequence numbers
+     */
+    public void setSequenceNumbers(boolean sequenceNumbers) {
+        mSequenceNumbers = sequenceNumbers;
+    }
+
+    /**
+     * Bind the endpoints and start sending.
+     * @throws IllegalStateException if the endpoints could not be bound
+     */
+    public synchronized void start() {
+        if (mThread != null) return;
+        final CountDownLatch bound = new CountDownLatch(1);
+        final RuntimeException[] failure = new RuntimeException[1];
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop(bound, failure);
+            }
+        }, "SyntheticPublisher");
+        mThread.start();
+        try {
+            bound.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] != null) {
+            stop();
+            throw new IllegalStateException("Could not bind publisher endpoints", failure[0]);
+        }
+    }
+
+    /**
+     * Stop sending and unbind the endpoints.
+     */
+    public void stop() {
+        final Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            if (thread == null) return;
+            mRunning = false;
+            mThread = null;
+        }
+        // not holding the lock, the sending thread reads the rates with it
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sent events of a type.
+     * @param type the event type
+     * @return number of sent events
+     */
+    public long getSentCount(@NonNull PublisherEvent.Type type) {
+        return mSent.get(type.ordinal());
+    }
+
+    /**
+     * Sent log messages.
+     * @return number of sent log messages
+     */
+    public long getLogCount() {
+        return mLogsSent;
+    }
+
+    /**
+     * Received requests, i.e. orientation resets.
+     * @return number of requests
+     */
+    public long getRequestCount() {
+        return mRequests;
+    }
+
+    /**
+     * The last received request.
+     * @return the json of the request or null if none was received
+     */
+    public @Nullable String getLastRequest() {
+        return mLastRequest;
+    }
+
+    /* runs on the publisher thread, owns the sockets */
+    private void loop(CountDownLatch bound, RuntimeException[] failure) {
+        final ZContext ctx = mConfig.createContext();
+        try {
+            final ZMQ.Socket events = ctx.createSocket(ZMQ.PUB);
+            final ZMQ.Socket logs = ctx.createSocket(ZMQ.PUB);
+            final ZMQ.Socket requests = ctx.createSocket(ZMQ.SUB);
+            try {
+                mConfig.apply(events);
+                mConfig.apply(logs);
+                mConfig.apply(requests);
+                events.bind(mConfig.getEventEndpoint("*"));
+                logs.bind(mConfig.getLogEndpoint("*"));
+                requests.bind(mConfig.getRequestEndpoint("*"));
+                requests.subscribe(new byte[0]);
+            } catch (RuntimeException e) {
+                failure[0] = e;
+                return;
+            } finally {
+                bound.countDown();
+            }
+
+            final ZMQ.Poller poller = ctx.createPoller(1);
+            poller.register(requests, ZMQ.Poller.POLLIN);
+            final Generator generator = new Generator();
+            final long[] due = new long[TYPES];
+            final long start = System.nanoTime();
+            for (int i = 0; i < TYPES; ++i) due[i] = start;
+            long logDue = start;
+
+            while (mRunning) {
+                final long now = System.nanoTime();
+                long next = now + MAX_IDLE_NANOS;
+                final boolean topicFrames = mTopicFrames;
+                final boolean sequenceNumbers = mSequenceNumbers;
+                for (PublisherEvent.Type type : PublisherEvent.Type.values()) {
+                    final int i = type.ordinal();
+                    final double rate;
+                    final int burst;
+                    synchronized (this) {
+                        rate = mRates[i];
+                        burst = mBursts[i];
+                    }
+                    if (rate <= 0) {
+                        due[i] = now;
+                        continue;
+                    }
+                    final long interval = (long) (TimeUnit.SECONDS.toNanos(1) * burst / rate);
+                    if (due[i] - now <= 0) {
+                        for (int b = 0; b < burst; ++b) {
+                            final long sequence = mSent.getAndIncrement(i);
+                            final String json = generator.event(type, sequenceNumbers ? sequence : -1);
+                            if (topicFrames) events.sendMore(generator.topic(type));
+                            events.send(json, ZMQ.DONTWAIT);
+                        }
+                        // keep the average rate, but don't catch up after a stall
+                        due[i] = Math.max(due[i] + interval, now);
+                    }
+                    if (due[i] - next < 0) next = due[i];
+                }
+                final double logRate = mLogRate;
+                if (logRate > 0) {
+                    if (logDue - now <= 0) {
+                        logs.sendMore("info");
+                        logs.send(generator.log(mLogsSent), ZMQ.DONTWAIT);
+                        mLogsSent++;
+                        logDue = Math.max(logDue + (long) (TimeUnit.SECONDS.toNanos(1) / logRate), now);
+                    }
+                    if (logDue - next < 0) next = logDue;
+                } else {
+                    logDue = now;
+                }
+
+                final long wait = next - System.nanoTime();
+                if (poller.poll(wait > 0 ? TimeUnit.NANOSECONDS.toMillis(wait) : 0) > 0 && poller.pollin(0)) {
+                    String request;
+                    while ((request = requests.recvStr(ZMQ.DONTWAIT)) != null) {
+                        mLastRequest = request;
+                        mRequests++;
+                    }
+                }
+            }
+        } finally {
+            ctx.destroy();
+        }
+    }
+
+    /* builds the synthetic messages, used from the publisher thread */
+    private static final class Generator {
+        private final StringBuilder mBuilder = new StringBuilder(256);
+        private long mCount;
+        private boolean mActive;
+
+        String topic(PublisherEvent.Type type) {
+            return type.jsonType;
+        }
+
+        String event(PublisherEvent.Type type, long sequence) {
+            final StringBuilder b = mBuilder;
+            b.setLength(0);
+            b.append("{\"type\":\"").append(type.jsonType).append('"');
+            if (sequence >= 0) b.append(",\"seq\":").append(sequence);
+            b.append(",\"parameters\":{");
+            final long n = mCount++;
+            switch (type) {
+                case Gesture:
+                    b.append("\"name\":\"").append(GestureId.nameOf((int) (n % (GestureId.DOUBLE_TAP + 1)))).append('"');
+                    break;
+                case Writing:
+                    b.append("\"vocabulary\":\"en\",\"hypothesis\":\"word").append(n % 100)
+                            .append("\",\"final\":").append(n % 5 == 0);
+                    break;
+                case MouseEvent:
+                    b.append("\"type\":\"move\",\"dx\":").append(Math.sin(n * 0.05) * 4.0)
+                            .append(",\"dy\":").append(Math.cos(n * 0.05) * 4.0)
+                            .append(",\"down\":false");
+                    break;
+                case Activation:
+                    mActive = !mActive;
+                    b.append("\"active\":").append(mActive);
+                    break;
+                case WritingSegment:
+                    b.append("\"started\":").append(n % 2 == 0);
+                    break;
+                case Heartbeat:
+                    b.append("\"active\":true,\"flags\":0,\"stream\":\"synthetic\",\"sensor\":\"synthetic\",\"last\":0");
+                    break;
+            }
+            return b.append("}}").toString();
+        }
+
+        String log(long n) {
+            final StringBuilder b = mBuilder;
+            b.setLength(0);
+            return b.append("{\"type\":\"Log\",\"parameters\":{\"who\":\"SyntheticPublisher\",\"level\":\"info\",\"message\":\"log ")
+                    .append(n).append("\",\"timestamp\":").append(System.currentTimeMillis()).append("}}").toString();
+        }
+    }
+}
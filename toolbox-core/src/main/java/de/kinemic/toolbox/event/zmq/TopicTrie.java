@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefix trie which maps subscription prefixes to values, matching zmq's prefix subscriptions:
+ * a topic matches every prefix it starts with, "" matches every topic.
+ * Not thread safe.
+ */
+class TopicTrie<V> {
+
+    private static class Node<V> {
+        final Map<Character, Node<V>> children = new HashMap<>();
+        final List<V> values = new ArrayList<>();
+    }
+
+    private final Node<V> mRoot = new Node<>();
+
+    /**
+     * Add a value for a prefix. A value can be added for multiple prefixes.
+     * @param prefix the subscription prefix, "" for all topics
+     * @param value the value
+     */
+    void add(String prefix, V value) {
+        Node<V> node = mRoot;
+        for (int i = 0; i < prefix.length(); ++i) {
+            final Character c = prefix.charAt(i);
+            Node<V> child = node.children.get(c);
+            if (child == null) {
+                child = new Node<>();
+                node.children.put(c, child);
+            }
+            node = child;
+        }
+        if (!node.values.contains(value)) node.values.add(value);
+    }
+
+    /**
+     * Remove a value from a prefix.
+     * @param prefix the subscription prefix
+     * @param value the value
+     * @return true if the value was added for this prefix
+     */
+    boolean remove(String prefix, V value) {
+        return remove(mRoot, prefix, 0, value);
+    }
+
+    private static <V> boolean remove(Node<V> node, String prefix, int index, V value) {
+        if (index == prefix.length()) return node.values.remove(value);
+        final Character c = prefix.charAt(index);
+        final Node<V> child = node.children.get(c);
+        if (child == null || !remove(child, prefix, index + 1, value)) return false;
+        if (child.values.isEmpty() && child.children.isEmpty()) node.children.remove(c);
+        return true;
+    }
+
+    /**
+     * Collect the values of all prefixes of a topic, each value once.
+     * @param topic the topic, i.e. an event type
+     * @param out receives the matching values
+     */
+    void match(String topic, Collection<V> out) {
+        Node<V> node = mRoot;
+        int i = 0;
+        while (node != null) {
+            for (V value : node.values) {
+                if (!out.contains(value)) out.add(value);
+            }
+            if (i == topic.length()) break;
+            node = node.children.get(topic.charAt(i++));
+        }
+    }
+
+    /**
+     * Whether no prefix is added.
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return mRoot.values.isEmpty() && mRoot.children.isEmpty();
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+/**
+ * Endpoints and socket options used to connect to the Publisher.
+ * By default the Publisher is reached with tcp on its default ports ({@link #DEFAULT_EVENT_PORT},
+ * {@link #DEFAULT_LOG_PORT}, {@link #DEFAULT_REQUEST_PORT}) and all socket options keep the defaults
+ * of the socket.
+ *
+ * Endpoints can also be given explicitly, with the "tcp://", "ipc://" or "inproc://" transport.
+ * inproc endpoints only reach sockets of the same {@link ZContext}, see {@link Builder#context(ZContext)}.
+ *
+ * Instances are immutable, use {@link Builder} or {@link #buildUpon()} to create them.
+ */
+public final class TransportConfig {
+    /** Port of the event socket of the Publisher. */
+    public static final int DEFAULT_EVENT_PORT = 9999;
+    /** Port of the log socket of the Publisher. */
+    public static final int DEFAULT_LOG_PORT = 9996;
+    /** Port of the request socket of the Publisher. */
+    public static final int DEFAULT_REQUEST_PORT = 9998;
+
+    /** The default configuration. */
+    public static final TransportConfig DEFAULT = new Builder().build();
+
+    /* an option which is not set keeps the default of the socket */
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final String mEventEndpoint;
+    private final String mLogEndpoint;
+    private final String mRequestEndpoint;
+    private final int mEventPort;
+    private final int mLogPort;
+    private final int mRequestPort;
+    private final long mReceiveHighWaterMark;
+    private final long mSendHighWaterMark;
+    private final long mReceiveBufferSize;
+    private final long mSendBufferSize;
+    private final long mTcpKeepAlive;
+    private final long mTcpKeepAliveIdle;
+    private final long mReconnectInterval;
+    private final long mReconnectIntervalMax;
+    private final long mLinger;
+    private final ZContext mContext;
+
+    private TransportConfig(Builder builder) {
+        mEventEndpoint = builder.mEventEndpoint;
+        mLogEndpoint = builder.mLogEndpoint;
+        mRequestEndpoint = builder.mRequestEndpoint;
+        mEventPort = builder.mEventPort;
+        mLogPort = builder.mLogPort;
+        mRequestPort = builder.mRequestPort;
+        mReceiveHighWaterMark = builder.mReceiveHighWaterMark;
+        mSendHighWaterMark = builder.mSendHighWaterMark;
+        mReceiveBufferSize = builder.mReceiveBufferSize;
+        mSendBufferSize = builder.mSendBufferSize;
+        mTcpKeepAlive = builder.mTcpKeepAlive;
+        mTcpKeepAliveIdle = builder.mTcpKeepAliveIdle;
+        mReconnectInterval = builder.mReconnectInterval;
+        mReconnectIntervalMax = builder.mReconnectIntervalMax;
+        mLinger = builder.mLinger;
+        mContext = builder.mContext;
+    }
+
+    /**
+     * Endpoint of the event socket.
+     * @param host host of the Publisher, used if no explicit endpoint was set
+     * @return the endpoint like "tcp://localhost:9999"
+     */
+    public @NonNull String getEventEndpoint(@NonNull String host) {
+        return endpoint(mEventEndpoint, host, mEventPort);
+    }
+
+    /**
+     * Endpoint of the log socket.
+     * @param host host of the Publisher, used if no explicit endpoint was set
+     * @return the endpoint like "tcp://localhost:9996"
+     */
+    public @NonNull String getLogEndpoint(@NonNull String host) {
+        return endpoint(mLogEndpoint, host, mLogPort);
+    }
+
+    /**
+     * Endpoint of the request socket.
+     * @param host host of the Publisher, used if no explicit endpoint was set
+     * @return the endpoint like "tcp://localhost:9998"
+     */
+    public @NonNull String getRequestEndpoint(@NonNull String host) {
+        return endpoint(mRequestEndpoint, host, mRequestPort);
+    }
+
+    private static String endpoint(String endpoint, String host, int port) {
+        return endpoint != null ? endpoint : "tcp://" + host + ":" + port;
+    }
+
+    /**
+     * Receive high water mark of subscribing sockets.
+     * @return number of messages, negative if the default of the socket is used
+     */
+    public long getReceiveHighWaterMark() {
+        return mReceiveHighWaterMark == UNSET ? -1 : mReceiveHighWaterMark;
+    }
+
+    /**
+     * Kernel receive buffer size of subscribing sockets.
+     * @return size in bytes, negative if the default of the socket is used
+     */
+    public long getReceiveBufferSize() {
+        return mReceiveBufferSize == UNSET ? -1 : mReceiveBufferSize;
+    }
+
+    /**
+     * Context the sockets are created in, required to reach inproc endpoints.
+     * @return the shared context or null if every connection creates its own
+     */
+    public @Nullable ZContext getContext() {
+        return mContext;
+    }
+
+    /* whether the event endpoint was given explicitly and does not depend on the host */
+    boolean hasEventEndpoint() {
+        return mEventEndpoint != null;
+    }
+
+    /* creates a context for a connection, closing it does not close a shared context */
+    ZContext createContext() {
+        return mContext != null ? ZContext.shadow(mContext) : new ZContext();
+    }
+
+    /* applies the options to a socket, has to be called before the socket connects */
+    void apply(ZMQ.Socket socket) {
+        final int type = socket.getType();
+        final boolean receives = type == ZMQ.SUB || type == ZMQ.XSUB;
+        if (receives) {
+            if (mReceiveHighWaterMark != UNSET) socket.setRcvHWM(mReceiveHighWaterMark);
+            if (mReceiveBufferSize != UNSET) socket.setReceiveBufferSize(mReceiveBufferSize);
+        } else {
+            if (mSendHighWaterMark != UNSET) socket.setSndHWM(mSendHighWaterMark);
+            if (mSendBufferSize != UNSET) socket.setSendBufferSize(mSendBufferSize);
+        }
+        if (mTcpKeepAlive != UNSET) socket.setTCPKeepAlive((int) mTcpKeepAlive);
+        if (mTcpKeepAliveIdle != UNSET) socket.setTCPKeepAliveIdle(mTcpKeepAliveIdle);
+        if (mReconnectInterval != UNSET) socket.setReconnectIVL(mReconnectInterval);
+        if (mReconnectIntervalMax != UNSET) socket.setReconnectIVLMax(mReconnectIntervalMax);
+        if (mLinger != UNSET) socket.setLinger(mLinger);
+    }
+
+    /**
+     * Create a builder initialized with this configuration.
+     * @return the builder
+     */
+    public @NonNull Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    /**
+     * Builder of a {@link TransportConfig}.
+     */
+    public static final class Builder {
+        private String mEventEndpoint;
+        private String mLogEndpoint;
+        private String mRequestEndpoint;
+        private int mEventPort = DEFAULT_EVENT_PORT;
+        private int mLogPort = DEFAULT_LOG_PORT;
+        private int mRequestPort = DEFAULT_REQUEST_PORT;
+        private long mReceiveHighWaterMark = UNSET;
+        private long mSendHighWaterMark = UNSET;
+        private long mReceiveBufferSize = UNSET;
+        private long mSendBufferSize = UNSET;
+        private long mTcpKeepAlive = UNSET;
+        private long mTcpKeepAliveIdle = UNSET;
+        private long mReconnectInterval = UNSET;
+        private long mReconnectIntervalMax = UNSET;
+        private long mLinger = UNSET;
+        private ZContext mContext;
+
+        /**
+         * Create a builder with the default configuration.
+         */
+        public Builder() {
+        }
+
+        private Builder(TransportConfig config) {
+            mEventEndpoint = config.mEventEndpoint;
+            mLogEndpoint = config.mLogEndpoint;
+            mRequestEndpoint = config.mRequestEndpoint;
+            mEventPort = config.mEventPort;
+            mLogPort = config.mLogPort;
+            mRequestPort = config.mRequestPort;
+            mReceiveHighWaterMark = config.mReceiveHighWaterMark;
+            mSendHighWaterMark = config.mSendHighWaterMark;
+            mReceiveBufferSize = config.mReceiveBufferSize;
+            mSendBufferSize = config.mSendBufferSize;
+            mTcpKeepAlive = config.mTcpKeepAlive;
+            mTcpKeepAliveIdle = config.mTcpKeepAliveIdle;
+            mReconnectInterval = config.mReconnectInterval;
+            mReconnectIntervalMax = config.mReconnectIntervalMax;
+            mLinger = config.mLinger;
+            mContext = config.mContext;
+        }
+
+        /**
+         * Set the endpoint of the event socket, instead of the host and {@link #eventPort(int)}.
+         * @param endpoint endpoint like "ipc://publisher-events" or "inproc://events", null for the default
+         * @return this builder
+         */
+        public @NonNull Builder eventEndpoint(@Nullable String endpoint) {
+            mEventEndpoint = checkEndpoint(endpoint);
+            return this;
+        }
+
+        /**
+         * Set the endpoint of the log socket, instead of the host and {@link #logPort(int)}.
+         * @param endpoint endpoint like "ipc://publisher-log" or "inproc://log", null for the default
+         * @return this builder
+         */
+        public @NonNull Builder logEndpoint(@Nullable String endpoint) {
+            mLogEndpoint = checkEndpoint(endpoint);
+            return this;
+        }
+
+        /**
+         * Set the endpoint of the request socket, instead of the host and {@link #requestPort(int)}.
+         * @param endpoint endpoint like "ipc://publisher-requests" or "inproc://requests", null for the default
+         * @return this builder
+         */
+        public @NonNull Builder requestEndpoint(@Nullable String endpoint) {
+            mRequestEndpoint = checkEndpoint(endpoint);
+            return this;
+        }
+
+        /**
+         * Set the tcp port of the event socket. Default is {@link #DEFAULT_EVENT_PORT}.
+         * @param port the port
+         * @return this builder
+         */
+        public @NonNull Builder eventPort(int port) {
+            mEventPort = checkPort(port);
+            return this;
+        }
+
+        /**
+         * Set the tcp port of the log socket. Default is {@link #DEFAULT_LOG_PORT}.
+         * @param port the port
+         * @return this builder
+         */
+        public @NonNull Builder logPort(int port) {
+            mLogPort = checkPort(port);
+            return this;
+        }
+
+        /**
+         * Set the tcp port of the request socket. Default is {@link #DEFAULT_REQUEST_PORT}.
+         * @param port the port
+         * @return this builder
+         */
+        public @NonNull Builder requestPort(int port) {
+            mRequestPort = checkPort(port);
+            return this;
+        }
+
+        /**
+         * Set the receive high water mark of subscribing sockets, the number of queued messages
+         * before the Publisher drops messages for this subscriber.
+         * @param messages maximum number of queued messages, 0 for no limit
+         * @return this builder
+         */
+        public @NonNull Builder receiveHighWaterMark(long messages) {
+            mReceiveHighWaterMark = checkNotNegative(messages, "messages");
+            return this;
+        }
+
+        /**
+         * Set the send high water mark of the request socket.
+         * @param messages maximum number of queued messages, 0 for no limit
+         * @return this builder
+         */
+        public @NonNull Builder sendHighWaterMark(long messages) {
+            mSendHighWaterMark = checkNotNegative(messages, "messages");
+            return this;
+        }
+
+        /**
+         * Set the kernel receive buffer size (SO_RCVBUF) of subscribing sockets.
+         * @param bytes size in bytes, 0 for the default of the system
+         * @return this builder
+         */
+        public @NonNull Builder receiveBufferSize(long bytes) {
+            mReceiveBufferSize = checkNotNegative(bytes, "bytes");
+            return this;
+        }
+
+        /**
+         * Set the kernel send buffer size (SO_SNDBUF) of the request socket.
+         * @param bytes size in bytes, 0 for the default of the system
+         * @return this builder
+         */
+        public @NonNull Builder sendBufferSize(long bytes) {
+            mSendBufferSize = checkNotNegative(bytes, "bytes");
+            return this;
+        }
+
+        /**
+         * Enable or disable tcp keepalive, to detect a Publisher which disappeared without closing
+         * the connection, i.e. a lost wifi connection.
+         * @param enabled true to enable keepalive
+         * @return this builder
+         */
+        public @NonNull Builder tcpKeepAlive(boolean enabled) {
+            mTcpKeepAlive = enabled ? 1 : 0;
+            return this;
+        }
+
+        /**
+         * Set the idle time of a connection before keepalive probes are sent.
+         * @param seconds idle time in seconds
+         * @return this builder
+         */
+        public @NonNull Builder tcpKeepAliveIdle(long seconds) {
+            if (seconds < 1) throw new IllegalArgumentException("seconds must be at least 1");
+            mTcpKeepAliveIdle = seconds;
+            return this;
+        }
+
+        /**
+         * Set the interval between attempts to reconnect to a Publisher which is not reachable.
+         * @param millis initial interval in milliseconds
+         * @param maxMillis maximum interval in milliseconds, the interval doubles up to it; 0 to keep the initial interval
+         * @return this builder
+         */
+        public @NonNull Builder reconnectInterval(long millis, long maxMillis) {
+            checkNotNegative(millis, "millis");
+            if (maxMillis != 0 && maxMillis < millis) throw new IllegalArgumentException("maxMillis must be 0 or at least millis");
+            mReconnectInterval = millis;
+            mReconnectIntervalMax = maxMillis;
+            return this;
+        }
+
+        /**
+         * Set how long unsent messages are kept when a socket is closed.
+         * @param millis linger time in milliseconds, 0 to discard them, -1 to wait until they are sent
+         * @return this builder
+         */
+        public @NonNull Builder linger(long millis) {
+            if (millis < -1) throw new IllegalArgumentException("millis must be at least -1");
+            mLinger = millis;
+            return this;
+        }
+
+        /**
+         * Set a context to create the sockets in, to connect to inproc endpoints bound in it.
+         * The context is not closed by the connections.
+         * @param context the shared context or null to use an own context per connection
+         * @return this builder
+         */
+        public @NonNull Builder context(@Nullable ZContext context) {
+            mContext = context;
+            return this;
+        }
+
+        /**
+         * Create the configuration.
+         * @return the configuration
+         */
+        public @NonNull TransportConfig build() {
+            return new TransportConfig(this);
+        }
+
+        private static String checkEndpoint(String endpoint) {
+            if (endpoint == null || endpoint.startsWith("tcp://") || endpoint.startsWith("ipc://")
+                    || endpoint.startsWith("inproc://")) {
+                return endpoint;
+            }
+            throw new IllegalArgumentException("Unsupported endpoint: " + endpoint);
+        }
+
+        private static int checkPort(int port) {
+            if (port < 1 || port > 65535) throw new IllegalArgumentException("Invalid port: " + port);
+            return port;
+        }
+
+        private static long checkNotNegative(long value, String name) {
+            if (value < 0) throw new IllegalArgumentException(name + " must not be negative");
+            return value;
+        }
+    }
+}
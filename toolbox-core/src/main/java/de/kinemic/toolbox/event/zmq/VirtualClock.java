@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+/**
+ * A {@link ReplayClock} which only advances when it is told to: waiting jumps to the awaited time
+ * instead of sleeping. A real time {@link CaptureReplay} with a virtual clock runs as fast as
+ * possible, but every replayed message is stamped with the same time relative to the start as
+ * when it was recorded, so tests depending on time are deterministic.
+ *
+ * Thread safe.
+ */
+public final class VirtualClock implements ReplayClock {
+    private long mNanos;
+
+    /**
+     * Create a clock starting at 0.
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Create a clock.
+     * @param startNanos initial time
+     */
+    public VirtualClock(long startNanos) {
+        mNanos = startNanos;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return mNanos;
+    }
+
+    /**
+     * Advance the clock.
+     * @param nanos time to add, not negative
+     */
+    public synchronized void advance(long nanos) {
+        if (nanos < 0) throw new IllegalArgumentException("nanos must not be negative");
+        mNanos += nanos;
+    }
+
+    @Override
+    public synchronized void sleepUntil(long nanos) {
+        if (nanos > mNanos) mNanos = nanos;
+    }
+}
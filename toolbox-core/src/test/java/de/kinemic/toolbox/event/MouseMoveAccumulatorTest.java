@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MouseMoveAccumulatorTest {
+
+    private static PublisherEvent move(double dx, double dy, boolean down) throws Exception {
+        return PublisherEvent.fromJson("{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":" + dx + ",\"dy\":" + dy + ",\"down\":" + down + "}}");
+    }
+
+    private static PublisherEvent toggle() throws Exception {
+        return PublisherEvent.fromJson("{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"toggle\"}}");
+    }
+
+    private static PublisherEvent gesture(String name) throws Exception {
+        return PublisherEvent.fromJson("{\"type\":\"Gesture\",\"parameters\":{\"name\":\"" + name + "\"}}");
+    }
+
+    @Test
+    public void conflate() throws Exception {
+        final PublisherEvent single = move(5, 5, false);
+        final PublisherEvent swipe = gesture("Swipe R");
+        final PublisherEvent toggle = toggle();
+        final List<PublisherEvent> events = Arrays.asList(
+                move(1, 2, false), move(3, 4, true), swipe, single, toggle, move(1, 1, false), move(1, 1, false), move(1, 1, true));
+        final List<PublisherEvent> out = new ArrayList<>();
+
+        assertEquals(3, new MouseMoveAccumulator().conflate(events, out));
+        assertEquals(5, out.size());
+
+        final PublisherEvent.MouseEvent first = out.get(0).asMouseEvent();
+        assertEquals(PublisherEvent.MouseEvent.Type.Move, first.type);
+        assertEquals(4.0, first.dx, 0.0);
+        assertEquals(6.0, first.dy, 0.0);
+        assertTrue(first.palmVertical);
+        assertSame(swipe, out.get(1));
+        assertSame(single, out.get(2));
+        assertSame(toggle, out.get(3));
+
+        final PublisherEvent last = out.get(4);
+        assertEquals(3.0, last.asMouseEvent().dx, 0.0);
+        assertEquals(3.0, last.getParameters().getDouble("dy"), 0.0);
+        assertTrue(last.getParameters().getBoolean("down"));
+    }
+
+    @Test
+    public void conflatePerSource() throws Exception {
+        final PublisherEventDecoder decoder = new PublisherEventDecoder();
+        final String json = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":1,\"dy\":1,\"down\":false}}";
+        decoder.setSource("left");
+        final PublisherEvent left = decoder.decode(json);
+        decoder.setSource("right");
+        final PublisherEvent right = decoder.decode(json);
+        final List<PublisherEvent> out = new ArrayList<>();
+
+        assertEquals(3, new MouseMoveAccumulator().conflate(Arrays.asList(left, left, right, right, right), out));
+        assertEquals(2, out.size());
+        assertEquals("left", out.get(0).getSource());
+        assertEquals(2.0, out.get(0).asMouseEvent().dx, 0.0);
+        assertEquals("right", out.get(1).getSource());
+        assertEquals(3.0, out.get(1).asMouseEvent().dx, 0.0);
+    }
+
+    @Test
+    public void conflateKeepsEarliestStamps() throws Exception {
+        final PublisherEventDecoder decoder = new PublisherEventDecoder();
+        final String json = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":1,\"dy\":1,\"down\":false}}";
+        final List<PublisherEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            decoder.setReceivedNanos(i * 1000);
+            decoder.setDecodedNanos(i * 1000 + 10);
+            events.add(decoder.decode(json));
+        }
+        final List<PublisherEvent> out = new ArrayList<>();
+        assertEquals(2, new MouseMoveAccumulator().conflate(events, out));
+        assertEquals(1, out.size());
+        assertEquals(1000, out.get(0).getReceivedNanos());
+        assertEquals(1010, out.get(0).getDecodedNanos());
+    }
+}
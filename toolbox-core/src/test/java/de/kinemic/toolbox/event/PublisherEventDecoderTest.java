@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the {@link PublisherEventDecoder} with the json object based parsing.
+ */
+public class PublisherEventDecoderTest {
+
+    private final PublisherEventDecoder mDecoder = new PublisherEventDecoder();
+
+    private static PublisherEvent legacy(String json) throws JSONException {
+        return PublisherEvent.fromJson(new JSONObject(json.replace("null", "{}")));
+    }
+
+    @Test
+    public void gesture() throws Exception {
+        String json = "{\"type\": \"Gesture\", \"parameters\": {\"name\": \"Swipe R\"}}";
+        assertEquals(legacy(json).asGesture().name, mDecoder.decode(json).asGesture().name);
+        assertEquals(PublisherEvent.Type.Gesture, mDecoder.decode(json).type);
+        assertEquals(GestureId.SWIPE_R, mDecoder.decode(json).asGesture().id);
+        assertEquals(GestureId.SWIPE_R, legacy(json).asGesture().id);
+    }
+
+    @Test
+    public void unknownGesture() throws Exception {
+        byte[] json = "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Wave Twice\"}}".getBytes("UTF-8");
+        PublisherEvent.Gesture gesture = mDecoder.decode(json, 0, json.length).asGesture();
+        assertTrue(gesture.id > GestureId.DOUBLE_TAP);
+        assertEquals(gesture.id, GestureId.find("Wave Twice"));
+        assertEquals("Wave Twice", GestureId.nameOf(gesture.id));
+        assertEquals(gesture.id, mDecoder.decode(json, 0, json.length).asGesture().id);
+    }
+
+    @Test
+    public void parametersFirstAndEscapes() throws Exception {
+        String json = "{\"parameters\":{\"extra\":[1,{\"a\":\"}\"}],\"name\":\"Swipe \\\"R\\\" \\u00e4\"},\"type\":\"Gesture\"}";
+        assertEquals(legacy(json).asGesture().name, mDecoder.decode(json).asGesture().name);
+    }
+
+    @Test
+    public void sequence() throws Exception {
+        assertEquals(-1, mDecoder.decode("{\"type\":\"Activation\",\"parameters\":{\"active\":true}}").getSequence());
+        byte[] json = "{\"seq\":42,\"type\":\"Activation\",\"parameters\":{\"active\":true}}".getBytes("UTF-8");
+        assertEquals(42, mDecoder.decode(json, 0, json.length).getSequence());
+        assertEquals(-1, mDecoder.decode("{\"type\":\"Activation\",\"seq\":\"x\",\"parameters\":{\"active\":true}}").getSequence());
+        assertEquals(-1, mDecoder.decode("{\"type\":\"Activation\",\"seq\":-3,\"parameters\":{\"active\":true}}").getSequence());
+    }
+
+    @Test
+    public void writing() throws Exception {
+        String json = "{\"type\":\"Writing\",\"parameters\":{\"vocabulary\":\"en\",\"hypothesis\":\"hello\",\"final\":true}}";
+        PublisherEvent.Writing expected = legacy(json).asWriting();
+        PublisherEvent.Writing actual = mDecoder.decode(json).asWriting();
+        assertEquals(expected.vocabulary, actual.vocabulary);
+        assertEquals(expected.hypothesis, actual.hypothesis);
+        assertEquals(expected.isFinal, actual.isFinal);
+    }
+
+    @Test
+    public void writingSegmentAndActivation() throws Exception {
+        String segment = "{\"type\":\"WritingSegment\",\"parameters\":{\"started\":false}}";
+        assertEquals(legacy(segment).asWritingSegment().started, mDecoder.decode(segment).asWritingSegment().started);
+        String activation = "{\"type\":\"Activation\",\"parameters\":{\"active\":true}}";
+        assertEquals(legacy(activation).asActivation().active, mDecoder.decode(activation).asActivation().active);
+    }
+
+    @Test
+    public void heartbeat() throws Exception {
+        String json = "{\"type\":\"Heartbeat\",\"parameters\":{\"active\":true,\"flags\":7,\"stream\":null,\"sensor\":\"K1\",\"last\":12}}";
+        PublisherEvent.Heartbeat expected = legacy(json).asHeartbeat();
+        PublisherEvent.Heartbeat actual = mDecoder.decode(json).asHeartbeat();
+        assertEquals(expected.active, actual.active);
+        assertEquals(expected.flags, actual.flags);
+        assertEquals(expected.stream, actual.stream);
+        assertEquals(expected.sensor, actual.sensor);
+        assertEquals(expected.last, actual.last);
+    }
+
+    @Test
+    public void mouseEvents() throws Exception {
+        String[] events = {
+                "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":-0.0125,\"dy\":3,\"down\":false}}",
+                "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":1.7976931348623157E308,\"dy\":0.1000000000000000055511151231257827,\"down\":true}}",
+                "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":\"2.5\",\"dy\":1e-3,\"down\":true}}",
+                "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"toggle\"}}",
+                "{\"type\":\"MouseToggle\",\"parameters\":null}",
+        };
+        for (String json : events) {
+            PublisherEvent.MouseEvent expected = legacy(json).asMouseEvent();
+            PublisherEvent.MouseEvent actual = mDecoder.decode(json).asMouseEvent();
+            assertEquals(json, expected.type, actual.type);
+            assertEquals(json, expected.dx, actual.dx, 0.0);
+            assertEquals(json, expected.dy, actual.dy, 0.0);
+            assertEquals(json, expected.palmVertical, actual.palmVertical);
+        }
+    }
+
+    @Test
+    public void parameters() throws Exception {
+        String json = "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Tap\",\"score\":0.5}}";
+        assertEquals(0.5, mDecoder.decode(json).getParameters().getDouble("score"), 0.0);
+        assertEquals(0, mDecoder.decode("{\"type\":\"Activation\",\"parameters\":null}").getParameters().length());
+    }
+
+    @Test
+    public void bytes() throws Exception {
+        String json = "{\"type\":\"Writing\",\"parameters\":{\"vocabulary\":\"de\",\"hypothesis\":\"Gr\u00fc\u00dfe \\u00e4\",\"final\":false}}";
+        byte[] data = ("xx" + json + "yy").getBytes("UTF-8");
+        int length = json.getBytes("UTF-8").length;
+        PublisherEvent event = mDecoder.decode(data, 2, length);
+        assertEquals("Gr\u00fc\u00dfe \u00e4", event.asWriting().hypothesis);
+        assertEquals("Gr\u00fc\u00dfe \u00e4", event.getParameters().getString("hypothesis"));
+
+        String move = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":0.5,\"dy\":-2,\"down\":true,\"extra\":1}}";
+        PublisherEvent mouse = mDecoder.decode(move.getBytes("UTF-8"), 0, move.length());
+        assertEquals(-2.0, mouse.asMouseEvent().dy, 0.0);
+        assertEquals(1, mouse.getParameters().getInt("extra"));
+    }
+
+    @Test
+    public void moveListener() throws Exception {
+        final double[] move = new double[3];
+        MouseEventListener listener = new MouseEventListener() {
+            @Override
+            public void onMouseMove(double dx, double dy, boolean palmVertical) {
+                move[0] = dx;
+                move[1] = dy;
+                move[2] = palmVertical ? 1 : 0;
+            }
+        };
+        byte[] json = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":0.25,\"dy\":-1.5,\"down\":true}}".getBytes("UTF-8");
+        assertNull(mDecoder.decode(json, 0, json.length, listener));
+        assertArrayEquals(new double[] {0.25, -1.5, 1}, move, 0.0);
+
+        byte[] toggle = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"toggle\"}}".getBytes("UTF-8");
+        assertEquals(PublisherEvent.MouseEvent.Type.Toggle, mDecoder.decode(toggle, 0, toggle.length, listener).asMouseEvent().type);
+    }
+
+    @Test(expected = JSONException.class)
+    public void incompletePayload() throws Exception {
+        mDecoder.decode("{\"type\":\"Gesture\",\"parameters\":null}").asGesture();
+    }
+
+    @Test(expected = JSONException.class)
+    public void unexpectedType() throws Exception {
+        mDecoder.decode("{\"type\":\"Unknown\",\"parameters\":{}}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void missingParameters() throws Exception {
+        mDecoder.decode("{\"type\":\"Gesture\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncated() throws Exception {
+        mDecoder.decode("{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Ta");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import org.junit.Test;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+
+public class EventMetricsTest {
+
+    @Test
+    public void concurrentCounts() throws Exception {
+        final EventMetrics metrics = new EventMetrics();
+        final EventMetrics.Snapshot before = metrics.snapshot();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; ++i) {
+                        metrics.recordMessage(10);
+                        metrics.recordEvent(PublisherEvent.Type.MouseEvent);
+                    }
+                    metrics.recordDropped(PublisherEvent.Type.Gesture);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        metrics.recordParseFailure();
+
+        final EventMetrics.Snapshot after = metrics.snapshot();
+        assertEquals(4 * perThread, after.messages);
+        assertEquals(40 * perThread, after.bytes);
+        assertEquals(4 * perThread, after.getEvents(PublisherEvent.Type.MouseEvent));
+        assertEquals(4 * perThread, after.getTotalEvents());
+        assertEquals(4, after.getDropped(PublisherEvent.Type.Gesture));
+        assertEquals(1, after.parseFailures);
+        assertTrue(after.perSecond(after.messages, before.messages, before) > 0.0);
+    }
+}
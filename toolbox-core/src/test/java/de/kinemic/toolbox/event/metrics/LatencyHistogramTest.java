@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets() {
+        long previous = -1;
+        for (int i = 0; i <= LatencyHistogram.indexOf(LatencyHistogram.DEFAULT_HIGHEST_NANOS); ++i) {
+            final long value = LatencyHistogram.valueOf(i);
+            assertTrue(value > previous);
+            assertEquals(i, LatencyHistogram.indexOf(value));
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.valueOf(i + 1) - 1));
+            previous = value;
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; ++i) histogram.record(i * 1000);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxNanos());
+        assertEquals(500500, histogram.getMeanNanos());
+        assertEquals(500000, histogram.getValueAtPercentile(50.0), 500000 / 16);
+        assertEquals(990000, histogram.getValueAtPercentile(99.0), 990000 / 16);
+        assertEquals(1000000, histogram.getValueAtPercentile(100.0));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.DEFAULT_HIGHEST_NANOS, histogram.getMaxNanos());
+        histogram.reset();
+        assertEquals(0, histogram.getValueAtPercentile(50.0));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.metrics;
+
+import org.junit.Test;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+
+public class LossTrackerTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void sequenceGaps() {
+        final LossTracker tracker = new LossTracker();
+        final long[] moves = {0, 1, 2, 5, 6, 10};
+        for (long seq : moves) tracker.record(PublisherEvent.Type.MouseEvent, seq, 0);
+        // sequences are per type
+        tracker.record(PublisherEvent.Type.Gesture, 100, 0);
+        tracker.record(PublisherEvent.Type.Gesture, 101, 0);
+        // restart
+        tracker.record(PublisherEvent.Type.Gesture, 0, 0);
+
+        assertTrue(tracker.hasSequence());
+        assertEquals(5, tracker.getSequenceLost());
+        assertEquals(2, tracker.getSequenceGaps());
+        assertEquals(1, tracker.getSequenceResets());
+        assertEquals(5, tracker.getEstimatedLost(PublisherEvent.Type.MouseEvent));
+        assertEquals(0, tracker.getEstimatedLost(PublisherEvent.Type.Gesture));
+    }
+
+    @Test
+    public void heartbeatEstimate() {
+        final LossTracker tracker = new LossTracker();
+        long now = SECOND;
+        for (int i = 0; i < 10; ++i) {
+            tracker.record(PublisherEvent.Type.Heartbeat, -1, now);
+            now += SECOND;
+        }
+        // two heartbeats missing
+        now += 2 * SECOND;
+        for (int i = 0; i < 8; ++i) {
+            tracker.record(PublisherEvent.Type.Heartbeat, -1, now);
+            now += SECOND;
+        }
+        for (int i = 0; i < 900; ++i) tracker.record(PublisherEvent.Type.MouseEvent, -1, 0);
+
+        assertFalse(tracker.hasSequence());
+        assertEquals(18, tracker.getHeartbeats());
+        assertEquals(2, tracker.getHeartbeatsMissed());
+        assertEquals(0.1, tracker.getLossRatio(), 1e-9);
+        assertEquals(100, tracker.getEstimatedLost(PublisherEvent.Type.MouseEvent));
+    }
+
+    @Test
+    public void heartbeatGapIsNoLoss() {
+        final LossTracker tracker = new LossTracker();
+        tracker.setMaxHeartbeatGap(3000);
+        long now = SECOND;
+        for (int i = 0; i < 10; ++i) {
+            tracker.record(PublisherEvent.Type.Heartbeat, -1, now);
+            now += SECOND;
+        }
+        // paused for a minute, then one heartbeat missing
+        now += 60 * SECOND;
+        for (int i = 0; i < 5; ++i) {
+            tracker.record(PublisherEvent.Type.Heartbeat, -1, now);
+            now += i == 2 ? 2 * SECOND : SECOND;
+        }
+
+        assertEquals(15, tracker.getHeartbeats());
+        assertEquals(1, tracker.getHeartbeatsMissed());
+        assertEquals(1 / 16.0, tracker.getLossRatio(), 1e-9);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.zeromq.ZSocket.UTF8;
+
+public class CaptureTest {
+    private static final long MILLI = 1000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final String ACTIVATION = "{\"type\":\"Activation\",\"parameters\":{\"active\":true}}";
+    private static final String GESTURE = "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Swipe R\"}}";
+
+    private File record(int count) throws Exception {
+        final File file = mFolder.newFile("session.kcap");
+        final CaptureWriter writer = new CaptureWriter(file);
+        final byte[] topic = "Gesture".getBytes(UTF8);
+        final byte[] gesture = GESTURE.getBytes(UTF8);
+        final byte[] activation = ACTIVATION.getBytes(UTF8);
+        for (int i = 0; i < count; ++i) {
+            if (i % 2 == 0) {
+                writer.writeEvent(1000 * MILLI + i * 10 * MILLI, topic, topic.length, gesture, gesture.length);
+            } else {
+                writer.writeEvent(1000 * MILLI + i * 10 * MILLI, null, 0, activation, activation.length);
+            }
+        }
+        writer.writeLog(1000 * MILLI + count * 10 * MILLI, "info", "{\"message\":\"done\"}");
+        assertEquals(count + 1, writer.getRecordCount());
+        writer.close();
+        assertEquals(writer.getSize(), file.length());
+        return file;
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        final CaptureReader reader = new CaptureReader(record(1000));
+        final CaptureReader.Record record = new CaptureReader.Record();
+        assertTrue(reader.next(record));
+        assertEquals(1000 * MILLI, record.getTimeNanos());
+        assertEquals("Gesture", record.getTopic());
+        assertEquals(GESTURE, record.getData());
+        assertTrue(reader.next(record));
+        assertNull(record.getTopic());
+        assertEquals(ACTIVATION, record.getData());
+
+        reader.seek(1000 * MILLI + 777 * 10 * MILLI);
+        assertTrue(reader.next(record));
+        assertEquals(1000 * MILLI + 777 * 10 * MILLI, record.getTimeNanos());
+
+        int remaining = 0;
+        while (reader.next(record)) ++remaining;
+        assertEquals(1000 - 778 + 1, remaining);
+        assertTrue(record.isLog());
+        assertEquals("info", record.getTopic());
+        reader.close();
+    }
+
+    @Test
+    public void unfinishedCapture() throws Exception {
+        final File file = record(600);
+        assertTrue(CaptureWriter.indexFile(file).delete());
+        // cut the last record in half
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 10);
+        raf.close();
+
+        final CaptureReader reader = new CaptureReader(file);
+        final CaptureReader.Record record = new CaptureReader.Record();
+        reader.seek(1000 * MILLI + 300 * 10 * MILLI);
+        assertTrue(reader.next(record));
+        assertEquals(1000 * MILLI + 300 * 10 * MILLI, record.getTimeNanos());
+        int remaining = 0;
+        while (reader.next(record)) ++remaining;
+        assertEquals(299, remaining);
+        reader.close();
+    }
+
+    @Test
+    public void staleIndex() throws Exception {
+        final File file = record(1000);
+        final File index = CaptureWriter.indexFile(file);
+        final byte[] stale = Files.readAllBytes(index.toPath());
+
+        // overwriting the capture removes its index
+        final CaptureWriter writer = new CaptureWriter(file);
+        assertFalse(index.exists());
+        final byte[] gesture = GESTURE.getBytes(UTF8);
+        for (int i = 0; i < 300; ++i) {
+            writer.writeEvent(5000 * MILLI + i * 10 * MILLI, null, 0, gesture, gesture.length);
+        }
+        writer.close();
+
+        // an index of another capture is not used
+        Files.write(index.toPath(), stale);
+        final CaptureReader reader = new CaptureReader(file);
+        final CaptureReader.Record record = new CaptureReader.Record();
+        reader.seek(5000 * MILLI + 200 * 10 * MILLI);
+        assertTrue(reader.next(record));
+        assertEquals(5000 * MILLI + 200 * 10 * MILLI, record.getTimeNanos());
+        reader.close();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+
+public class EventQueueTest {
+
+    private static PublisherEvent gesture(String name) throws Exception {
+        return PublisherEvent.fromJson("{\"type\":\"Gesture\",\"parameters\":{\"name\":\"" + name + "\"}}");
+    }
+
+    private static PublisherEvent heartbeat(long last) throws Exception {
+        return PublisherEvent.fromJson("{\"type\":\"Heartbeat\",\"parameters\":{\"active\":true,\"flags\":0,\"stream\":\"s\",\"sensor\":\"k\",\"last\":" + last + "}}");
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        EventQueue queue = new EventQueue(2, EventQueue.Policy.DROP_NEWEST);
+        assertTrue(queue.offer(gesture("A")));
+        assertTrue(queue.offer(gesture("B")));
+        assertFalse(queue.offer(gesture("C")));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("A", queue.poll().asGesture().name);
+        assertEquals("B", queue.poll().asGesture().name);
+        assertNull(queue.poll());
+        assertEquals(2, queue.getPolledCount());
+        assertTrue(queue.getMaxWaitNanos() >= queue.getAverageWaitNanos());
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        EventQueue queue = new EventQueue(2, EventQueue.Policy.DROP_OLDEST);
+        queue.offer(gesture("A"));
+        queue.offer(gesture("B"));
+        queue.offer(gesture("C"));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("B", queue.poll().asGesture().name);
+        assertEquals("C", queue.poll().asGesture().name);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void conflate() throws Exception {
+        EventQueue queue = new EventQueue(8, EventQueue.Policy.CONFLATE);
+        queue.offer(heartbeat(1));
+        queue.offer(gesture("A"));
+        queue.offer(heartbeat(2));
+        queue.offer(heartbeat(3));
+        assertEquals("A", queue.poll().asGesture().name);
+        assertEquals(3, queue.poll().asHeartbeat().last);
+        assertNull(queue.poll());
+        assertEquals(2, queue.getConflatedCount());
+    }
+
+    @Test
+    public void concurrentOrder() throws Exception {
+        final EventQueue queue = new EventQueue(16, EventQueue.Policy.BLOCK);
+        final int count = 20000;
+        final PublisherEvent[] events = new PublisherEvent[count];
+        for (int i = 0; i < count; ++i) events[i] = heartbeat(i);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (PublisherEvent event : events) queue.offer(event);
+            }
+        });
+        producer.start();
+        int received = 0;
+        while (received < count) {
+            PublisherEvent event = queue.poll();
+            if (event != null) assertSame(events[received++], event);
+        }
+        producer.join();
+        assertEquals(0, queue.getDroppedCount());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+import static org.zeromq.ZSocket.UTF8;
+
+public class EventReceiverTest {
+    private static final long SECOND = 1000000000L;
+
+    private static final String HEARTBEAT = "{\"type\":\"Heartbeat\",\"parameters\":{\"active\":true,\"flags\":0,\"stream\":\"s\",\"sensor\":\"k\",\"last\":0}}";
+
+    @Test
+    public void filteredHeartbeatsForLossEstimation() {
+        final List<PublisherEvent> delivered = new ArrayList<>();
+        final EventReceiver receiver = new EventReceiver() {
+            @Override
+            void dispatchEvents(List<PublisherEvent> events) {
+                delivered.addAll(events);
+            }
+
+            @Override
+            void dispatchLog(String level, String json) {
+            }
+        };
+        receiver.applyTopics(new String[]{"Gesture"});
+
+        final byte[] topic = "Heartbeat".getBytes(UTF8);
+        final byte[] data = HEARTBEAT.getBytes(UTF8);
+        receiver.receiveEvent(topic, topic.length, data, data.length, SECOND);
+        assertEquals(0, receiver.getLossTracker().getHeartbeats());
+
+        receiver.setLossEstimation(true);
+        receiver.receiveEvent(topic, topic.length, data, data.length, 2 * SECOND);
+        receiver.receiveEvent(topic, topic.length, data, data.length, 3 * SECOND);
+        receiver.flushBatch();
+
+        assertTrue(delivered.isEmpty());
+        assertEquals(2, receiver.getLossTracker().getHeartbeats());
+        assertEquals(3, receiver.getMetrics().snapshot().filtered);
+    }
+
+    @Test
+    public void prefixTopicsForSingleFrames() {
+        final List<PublisherEvent> delivered = new ArrayList<>();
+        final EventReceiver receiver = new EventReceiver() {
+            @Override
+            void dispatchEvents(List<PublisherEvent> events) {
+                delivered.addAll(events);
+            }
+
+            @Override
+            void dispatchLog(String level, String json) {
+            }
+        };
+        receiver.applyTopics(new String[]{"Mouse"});
+        assertTrue(receiver.accepts(PublisherEvent.Type.MouseEvent));
+        assertFalse(receiver.accepts(PublisherEvent.Type.Gesture));
+
+        final byte[] move = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":1,\"dy\":2,\"down\":false}}".getBytes(UTF8);
+        final byte[] gesture = "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Swipe R\"}}".getBytes(UTF8);
+        receiver.receiveEvent(null, 0, move, move.length, SECOND);
+        receiver.receiveEvent(null, 0, gesture, gesture.length, SECOND);
+        receiver.flushBatch();
+
+        assertEquals(1, delivered.size());
+        assertEquals(PublisherEvent.Type.MouseEvent, delivered.get(0).type);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+import static org.zeromq.ZSocket.UTF8;
+
+public class HealthMonitorTest {
+    private static final long MILLI = 1000000L;
+
+    private static String heartbeat(long last) {
+        return "{\"type\":\"Heartbeat\",\"parameters\":{\"active\":true,\"flags\":0,\"stream\":\"s\",\"sensor\":\"k\",\"last\":" + last + "}}";
+    }
+
+    private static PublisherEvent.Heartbeat parse(long last) throws Exception {
+        return PublisherEvent.fromJson(heartbeat(last)).asHeartbeat();
+    }
+
+    @Test
+    public void stallAndRecover() throws Exception {
+        final HealthMonitor monitor = new HealthMonitor();
+        monitor.setStallTimeout(100);
+        monitor.setReconnectBackoff(50, 120);
+        final List<HealthMonitor.State> states = new ArrayList<>();
+        monitor.setListener(new HealthMonitor.Listener() {
+            @Override
+            public void onStateChanged(HealthMonitor.State previous, HealthMonitor.State state) {
+                states.add(state);
+            }
+        });
+        assertEquals(-1, monitor.getTimeoutMillis(0));
+
+        monitor.start(0);
+        assertEquals(HealthMonitor.State.DISCONNECTED, monitor.getState());
+        monitor.recordHeartbeat(parse(0), 10 * MILLI);
+        monitor.recordHeartbeat(parse(0), 40 * MILLI);
+        assertEquals(HealthMonitor.State.CONNECTED, monitor.getState());
+        assertEquals(30 * MILLI, monitor.getHeartbeatIntervalNanos());
+        assertEquals(100, monitor.getTimeoutMillis(40 * MILLI));
+        assertFalse(monitor.check(139 * MILLI));
+
+        // stalled: reconnect at once, then after 50, 100, 120, 120 ms
+        assertTrue(monitor.check(140 * MILLI));
+        assertEquals(HealthMonitor.State.STALLED, monitor.getState());
+        assertEquals(100 * MILLI, monitor.getLastDetectNanos());
+        assertEquals(50, monitor.getTimeoutMillis(140 * MILLI));
+        assertFalse(monitor.check(189 * MILLI));
+        assertTrue(monitor.check(190 * MILLI));
+        assertTrue(monitor.check(290 * MILLI));
+        assertFalse(monitor.check(400 * MILLI));
+        assertTrue(monitor.check(410 * MILLI));
+        assertEquals(4, monitor.getReconnectCount());
+        assertEquals(1, monitor.getStallCount());
+
+        monitor.recordHeartbeat(parse(0), 450 * MILLI);
+        assertEquals(HealthMonitor.State.CONNECTED, monitor.getState());
+        assertEquals(310 * MILLI, monitor.getLastRecoverNanos());
+
+        // the backoff starts over with the next stall
+        assertTrue(monitor.check(550 * MILLI));
+        assertFalse(monitor.check(599 * MILLI));
+        assertTrue(monitor.check(600 * MILLI));
+        assertEquals(2, monitor.getStallCount());
+
+        monitor.stop();
+        assertFalse(monitor.check(10000 * MILLI));
+        assertEquals(HealthMonitor.State.DISCONNECTED, monitor.getState());
+        assertEquals(Arrays.asList(HealthMonitor.State.CONNECTED, HealthMonitor.State.STALLED,
+                HealthMonitor.State.CONNECTED, HealthMonitor.State.STALLED, HealthMonitor.State.DISCONNECTED), states);
+    }
+
+    @Test
+    public void noHeartbeatAfterStart() {
+        final HealthMonitor monitor = new HealthMonitor();
+        monitor.setStallTimeout(100);
+        monitor.start(1000 * MILLI);
+        assertFalse(monitor.check(1099 * MILLI));
+        assertTrue(monitor.check(1100 * MILLI));
+        assertEquals(HealthMonitor.State.STALLED, monitor.getState());
+    }
+
+    @Test
+    public void sensorLost() throws Exception {
+        final HealthMonitor monitor = new HealthMonitor();
+        monitor.setSensorTimeout(3);
+        monitor.start(0);
+        monitor.recordHeartbeat(parse(1), MILLI);
+        assertEquals(HealthMonitor.State.CONNECTED, monitor.getState());
+        monitor.recordHeartbeat(parse(3), 2 * MILLI);
+        monitor.recordHeartbeat(parse(4), 3 * MILLI);
+        assertEquals(HealthMonitor.State.SENSOR_LOST, monitor.getState());
+        assertEquals(1, monitor.getSensorLostCount());
+        // the publisher is alive, no reconnect
+        assertFalse(monitor.check(4 * MILLI));
+        monitor.recordHeartbeat(parse(0), 5 * MILLI);
+        assertEquals(HealthMonitor.State.CONNECTED, monitor.getState());
+    }
+
+    @Test
+    public void filteredHeartbeatsReachMonitor() {
+        final List<PublisherEvent> delivered = new ArrayList<>();
+        final EventReceiver receiver = new EventReceiver() {
+            @Override
+            void dispatchEvents(List<PublisherEvent> events) {
+                delivered.addAll(events);
+            }
+
+            @Override
+            void dispatchLog(String level, String json) {
+            }
+        };
+        final HealthMonitor monitor = new HealthMonitor();
+        receiver.setHealthMonitor(monitor);
+        receiver.applyTopics(new String[]{"Gesture"});
+        monitor.start(0);
+
+        final byte[] topic = "Heartbeat".getBytes(UTF8);
+        final byte[] data = heartbeat(0).getBytes(UTF8);
+        receiver.receiveEvent(topic, topic.length, data, data.length, MILLI);
+        receiver.receiveEvent(null, 0, data, data.length, 2 * MILLI);
+        receiver.flushBatch();
+
+        assertTrue(delivered.isEmpty());
+        assertEquals(2, monitor.getHeartbeatCount());
+        assertEquals(HealthMonitor.State.CONNECTED, monitor.getState());
+        assertEquals(2, receiver.getMetrics().snapshot().filtered);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+import static org.zeromq.ZSocket.UTF8;
+
+public class IdleModeTest {
+    private static final long MILLI = 1000000L;
+
+    @Test
+    public void idleAfterDelay() {
+        final IdleMode idleMode = new IdleMode();
+        idleMode.setIdleDelay(100);
+        assertFalse(idleMode.update(0));
+        idleMode.start();
+        assertEquals(-1, idleMode.getTimeoutMillis(0));
+
+        idleMode.recordActive(false, 10 * MILLI);
+        assertEquals(100, idleMode.getTimeoutMillis(10 * MILLI));
+        assertFalse(idleMode.update(109 * MILLI));
+        assertFalse(idleMode.isIdle());
+        assertTrue(idleMode.update(110 * MILLI));
+        assertTrue(idleMode.isIdle());
+        assertEquals(-1, idleMode.getTimeoutMillis(110 * MILLI));
+        // repeated inactive heartbeats change nothing
+        idleMode.recordActive(false, 200 * MILLI);
+        assertFalse(idleMode.update(200 * MILLI));
+
+        idleMode.recordActive(true, 300 * MILLI);
+        assertTrue(idleMode.update(301 * MILLI));
+        assertFalse(idleMode.isIdle());
+        assertEquals(MILLI, idleMode.getLastResumeNanos());
+        assertEquals(191 * MILLI, idleMode.getIdleTotalNanos());
+        assertEquals(1, idleMode.getIdleCount());
+    }
+
+    @Test
+    public void shortPauseStaysSubscribed() {
+        final IdleMode idleMode = new IdleMode();
+        idleMode.setIdleDelay(100);
+        idleMode.start();
+        idleMode.recordActive(false, 0);
+        idleMode.recordActive(true, 50 * MILLI);
+        assertFalse(idleMode.update(200 * MILLI));
+        assertFalse(idleMode.isIdle());
+        assertEquals(0, idleMode.getIdleCount());
+        assertEquals(-1, idleMode.getLastResumeNanos());
+    }
+
+    @Test
+    public void filteredActivationsReachIdleMode() {
+        final EventReceiver receiver = new EventReceiver() {
+            @Override
+            void dispatchEvents(List<PublisherEvent> events) {
+                fail("activations are filtered out");
+            }
+
+            @Override
+            void dispatchLog(String level, String json) {
+            }
+        };
+        final IdleMode idleMode = new IdleMode();
+        idleMode.setIdleDelay(0);
+        receiver.setIdleMode(idleMode);
+        receiver.applyTopics(new String[]{"Gesture", "MouseEvent"});
+        idleMode.start();
+
+        final byte[] topic = "Activation".getBytes(UTF8);
+        final byte[] inactive = "{\"type\":\"Activation\",\"parameters\":{\"active\":false}}".getBytes(UTF8);
+        receiver.receiveEvent(topic, topic.length, inactive, inactive.length, MILLI);
+        receiver.flushBatch();
+        assertTrue(idleMode.update(MILLI));
+        assertTrue(idleMode.isIdle());
+
+        final byte[] heartbeat = "Heartbeat".getBytes(UTF8);
+        final byte[] active = ("{\"type\":\"Heartbeat\",\"parameters\":{\"active\":true,\"flags\":0,"
+                + "\"stream\":\"s\",\"sensor\":\"k\",\"last\":0}}").getBytes(UTF8);
+        receiver.receiveEvent(heartbeat, heartbeat.length, active, active.length, 2 * MILLI);
+        receiver.flushBatch();
+        assertTrue(idleMode.update(3 * MILLI));
+        assertFalse(idleMode.isIdle());
+        assertEquals(MILLI, idleMode.getLastResumeNanos());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PublisherRequestTest {
+
+    @Test
+    public void callbacks() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final PublisherRequest.Callback callback = new PublisherRequest.Callback() {
+            @Override
+            public void onComplete(PublisherRequest request) {
+                assertEquals(PublisherRequest.State.SENT, request.getState());
+                calls.incrementAndGet();
+            }
+        };
+        PublisherRequest request = new PublisherRequest(1, "OrientationReset", "{}", 1000);
+        request.addCallback(callback);
+        assertFalse(request.isDone());
+        assertEquals(PublisherRequest.State.PENDING, request.await(1, TimeUnit.MILLISECONDS));
+
+        assertTrue(request.complete(PublisherRequest.State.SENT));
+        assertFalse(request.complete(PublisherRequest.State.CANCELLED));
+        request.addCallback(callback);
+        assertEquals(2, calls.get());
+        assertEquals(PublisherRequest.State.SENT, request.await(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        PublisherRequest request = new PublisherRequest(2, "OrientationReset", "{}", 0);
+        Thread.sleep(1);
+        assertTrue(request.completeIfExpired());
+        assertEquals(PublisherRequest.State.TIMED_OUT, request.getState());
+        assertEquals(1, request.getRemainingMillis());
+    }
+
+    @Test
+    public void remaining() throws Exception {
+        PublisherRequest request = new PublisherRequest(3, "OrientationReset", "{}", 50);
+        final long remaining = request.getRemainingMillis();
+        assertTrue(remaining > 0 && remaining <= 51);
+        assertFalse(request.completeIfExpired());
+        // a check after the remaining time finds the request expired
+        Thread.sleep(remaining);
+        assertTrue(request.completeIfExpired());
+        assertEquals(PublisherRequest.State.TIMED_OUT, request.getState());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
+
+import static org.junit.Assert.*;
+import static org.zeromq.ZSocket.UTF8;
+
+public class PublisherSourceTest {
+    private static final long MILLI = 1000000L;
+
+    @Test
+    public void rateLimiter() {
+        final RateLimiter limiter = new RateLimiter(100, 2);
+        // the burst passes at once
+        assertTrue(limiter.tryAcquire(0));
+        assertTrue(limiter.tryAcquire(0));
+        assertFalse(limiter.tryAcquire(MILLI));
+        // one token per 10 ms
+        assertTrue(limiter.tryAcquire(11 * MILLI));
+        assertFalse(limiter.tryAcquire(15 * MILLI));
+        assertTrue(limiter.tryAcquire(21 * MILLI));
+        // never more than the burst
+        assertTrue(limiter.tryAcquire(1000 * MILLI));
+        assertTrue(limiter.tryAcquire(1000 * MILLI));
+        assertFalse(limiter.tryAcquire(1000 * MILLI));
+    }
+
+    @Test
+    public void taggedAndLimited() {
+        final PublisherSource source = new PublisherSource("left", "192.168.0.10");
+        source.setRateLimit(1000, 3);
+        final List<PublisherEvent> delivered = new ArrayList<>();
+        final EventReceiver receiver = new EventReceiver(source) {
+            @Override
+            void dispatchEvents(List<PublisherEvent> events) {
+                delivered.addAll(events);
+            }
+
+            @Override
+            void dispatchLog(String level, String json) {
+            }
+        };
+        receiver.applyTopics(new String[]{""});
+
+        final byte[] move = "{\"type\":\"MouseEvent\",\"parameters\":{\"type\":\"move\",\"dx\":1.0,\"dy\":2.0,\"down\":false}}".getBytes(UTF8);
+        final byte[] gesture = "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Swipe R\"}}".getBytes(UTF8);
+        for (int i = 0; i < 5; ++i) {
+            receiver.receiveEvent(null, 0, move, move.length, MILLI);
+        }
+        receiver.receiveEvent(null, 0, move, move.length, 2 * MILLI);
+        // control events are never limited
+        for (int i = 0; i < 3; ++i) {
+            receiver.receiveEvent(null, 0, gesture, gesture.length, 2 * MILLI);
+        }
+        receiver.flushBatch();
+
+        assertEquals(7, delivered.size());
+        for (PublisherEvent event : delivered) {
+            assertEquals("left", event.getSource());
+        }
+        final EventMetrics.Snapshot snapshot = source.getMetrics().snapshot();
+        assertEquals(6, snapshot.getEvents(PublisherEvent.Type.MouseEvent));
+        assertEquals(2, snapshot.getDropped(PublisherEvent.Type.MouseEvent));
+        assertEquals(3, snapshot.getEvents(PublisherEvent.Type.Gesture));
+        assertEquals(0, snapshot.getDropped(PublisherEvent.Type.Gesture));
+        assertEquals(6, source.getLossTracker().getReceived(PublisherEvent.Type.MouseEvent));
+
+        source.setRateLimit(0, 0);
+        receiver.receiveEvent(null, 0, move, move.length, 2 * MILLI);
+        receiver.flushBatch();
+        assertEquals(8, delivered.size());
+    }
+}
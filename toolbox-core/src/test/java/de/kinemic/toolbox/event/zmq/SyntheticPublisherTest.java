@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.PublisherEventDecoder;
+
+import static org.junit.Assert.*;
+
+public class SyntheticPublisherTest {
+
+    @Test
+    public void topicFramesAndRequests() throws Exception {
+        final ZContext context = new ZContext();
+        final TransportConfig config = new TransportConfig.Builder()
+                .eventEndpoint("inproc://events")
+                .logEndpoint("inproc://log")
+                .requestEndpoint("inproc://requests")
+                .context(context)
+                .build();
+        final SyntheticPublisher publisher = new SyntheticPublisher(config);
+        publisher.setTopicFrames(true);
+        publisher.setSequenceNumbers(true);
+        publisher.start();
+        try {
+            final ZMQ.Socket sub = context.createSocket(ZMQ.SUB);
+            sub.connect(config.getEventEndpoint("unused"));
+            sub.subscribe("Gesture".getBytes(ZMQ.CHARSET));
+            sub.setReceiveTimeOut(2000);
+            final ZMQ.Socket requests = context.createSocket(ZMQ.PUB);
+            requests.connect(config.getRequestEndpoint("unused"));
+
+            // late joiners miss the first messages, sequence numbers are consecutive afterwards
+            publisher.setRate(PublisherEvent.Type.Gesture, 1000, 10);
+            publisher.setRate(PublisherEvent.Type.MouseEvent, 1000, 1);
+            final PublisherEventDecoder decoder = new PublisherEventDecoder();
+            long last = -1;
+            for (int i = 0; i < 50; ++i) {
+                assertEquals("Gesture", sub.recvStr());
+                assertTrue(sub.hasReceiveMore());
+                final PublisherEvent event = decoder.decode(sub.recvStr());
+                assertEquals(PublisherEvent.Type.Gesture, event.type);
+                assertNotNull(event.asGesture().name);
+                if (last >= 0) assertEquals(last + 1, event.getSequence());
+                last = event.getSequence();
+            }
+            assertTrue(publisher.getSentCount(PublisherEvent.Type.MouseEvent) > 0);
+
+            for (int i = 0; i < 100 && publisher.getRequestCount() == 0; ++i) {
+                requests.send("{\"type\":\"OrientationReset\"}");
+                Thread.sleep(10);
+            }
+            assertTrue(publisher.getRequestCount() > 0);
+            assertEquals("{\"type\":\"OrientationReset\"}", publisher.getLastRequest());
+        } finally {
+            publisher.stop();
+            context.destroy();
+        }
+    }
+}
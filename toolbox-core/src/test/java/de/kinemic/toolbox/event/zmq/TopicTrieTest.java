@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopicTrieTest {
+
+    private static List<String> match(TopicTrie<String> trie, String topic) {
+        List<String> out = new ArrayList<>();
+        trie.match(topic, out);
+        return out;
+    }
+
+    @Test
+    public void prefixMatch() {
+        TopicTrie<String> trie = new TopicTrie<>();
+        trie.add("", "all");
+        trie.add("Writing", "writing");
+        trie.add("Gesture", "gesture");
+        trie.add("Writing", "all");
+
+        assertEquals(Arrays.asList("all", "writing"), match(trie, "WritingSegment"));
+        assertEquals(Arrays.asList("all", "gesture"), match(trie, "Gesture"));
+        assertEquals(Arrays.asList("all"), match(trie, "Heartbeat"));
+
+        assertTrue(trie.remove("Writing", "writing"));
+        assertFalse(trie.remove("Writing", "writing"));
+        assertEquals(Arrays.asList("all"), match(trie, "Writing"));
+
+        trie.remove("", "all");
+        trie.remove("Writing", "all");
+        trie.remove("Gesture", "gesture");
+        assertTrue(trie.isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import static org.junit.Assert.*;
+
+public class TransportConfigTest {
+
+    @Test
+    public void endpoints() {
+        assertEquals("tcp://10.0.0.2:9999", TransportConfig.DEFAULT.getEventEndpoint("10.0.0.2"));
+        assertEquals("tcp://localhost:9996", TransportConfig.DEFAULT.getLogEndpoint("localhost"));
+
+        final TransportConfig config = new TransportConfig.Builder()
+                .eventEndpoint("ipc://publisher-events")
+                .requestPort(7000)
+                .build();
+        assertEquals("ipc://publisher-events", config.getEventEndpoint("localhost"));
+        assertEquals("tcp://localhost:7000", config.getRequestEndpoint("localhost"));
+        assertEquals("tcp://localhost:9996", config.buildUpon().build().getLogEndpoint("localhost"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedEndpoint() {
+        new TransportConfig.Builder().eventEndpoint("udp://localhost:9999");
+    }
+
+    @Test
+    public void inprocWithOptions() {
+        final ZContext context = new ZContext();
+        try {
+            final TransportConfig config = new TransportConfig.Builder()
+                    .eventEndpoint("inproc://events")
+                    .receiveHighWaterMark(10)
+                    .linger(0)
+                    .context(context)
+                    .build();
+
+            final ZMQ.Socket pub = context.createSocket(ZMQ.PUB);
+            pub.bind(config.getEventEndpoint("unused"));
+
+            final ZContext shadow = config.createContext();
+            final ZMQ.Socket sub = shadow.createSocket(ZMQ.SUB);
+            config.apply(sub);
+            assertEquals(10, sub.getRcvHWM());
+            sub.connect(config.getEventEndpoint("unused"));
+            sub.subscribe("".getBytes(ZMQ.CHARSET));
+
+            // subscriptions are propagated asynchronously
+            String received = null;
+            for (int i = 0; i < 100 && received == null; ++i) {
+                pub.send("{\"type\":\"Heartbeat\"}");
+                received = sub.recvStr(ZMQ.DONTWAIT);
+                if (received == null) Thread.sleep(10);
+            }
+            assertEquals("{\"type\":\"Heartbeat\"}", received);
+            shadow.destroy();
+        } catch (InterruptedException e) {
+            fail();
+        } finally {
+            context.destroy();
+        }
+    }
+}
@@ -16,12 +16,21 @@
 
 package de.kinemic.toolbox;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 
 import org.json.JSONException;
 
+import java.util.HashMap;
+import java.util.List;
+
 import de.kinemic.toolbox.event.PublisherEvent;
 import de.kinemic.toolbox.event.PublisherLog;
+import de.kinemic.toolbox.event.VsyncEventDispatcher;
+import de.kinemic.toolbox.event.metrics.LatencyTracker;
+import de.kinemic.toolbox.event.zmq.EventQueue;
 import de.kinemic.toolbox.event.zmq.PublisherListener;
 import de.kinemic.toolbox.event.zmq.PublisherRequester;
 
@@ -31,24 +40,99 @@ import de.kinemic.toolbox.event.zmq.PublisherRequester;
  * Override {@link #handleEvent(PublisherEvent)} to handle gesture events.
  */
 public class AdvancedGestureActivity extends AppCompatActivity {
-    private final PublisherListener mReceiver = new PublisherListener() {
+    private static final String TAG = AdvancedGestureActivity.class.getSimpleName();
 
-        @Override
-        protected void handleLog(PublisherLog log) {
+    /* connections in standby, keyed by activity class and publisher ip, accessed from the main thread */
+    private static final HashMap<String, Connection> sStandby = new HashMap<>();
+    private static Handler sMainHandler;
+
+    /**
+     * Listener and requester of an activity. Kept alive for {@link #getStandbyMillis()} after
+     * onPause, so a resumed (or recreated) activity of the same class can reuse the connection.
+     */
+    private static final class Connection {
+        final String key;
 
+        // null while paused, events are dropped then
+        volatile AdvancedGestureActivity target;
+        // System.nanoTime() of the last resume until the first event was delivered, 0 otherwise
+        volatile long resumedAt;
+
+        final PublisherListener receiver = new PublisherListener() {
+            @Override
+            protected void handleLog(PublisherLog log) {
+
+            }
+
+            @Override
+            protected void handleEvent(PublisherEvent base) {
+                final AdvancedGestureActivity activity = target;
+                if (activity == null) return;
+                try {
+                    activity.handleEvent(base);
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            @Override
+            protected void handleEvents(List<PublisherEvent> events) {
+                final AdvancedGestureActivity activity = target;
+                if (activity == null) return;
+                final long resumed = resumedAt;
+                if (resumed != 0) {
+                    resumedAt = 0;
+                    activity.mResumeLatencyNanos = System.nanoTime() - resumed;
+                    Log.d(TAG, "first event " + activity.mResumeLatencyNanos / 1000 + "us after resume");
+                }
+                final VsyncEventDispatcher dispatcher = activity.mVsyncDispatcher;
+                if (dispatcher != null) {
+                    dispatcher.post(events);
+                } else {
+                    activity.handleEvents(events);
+                }
+            }
+        };
+
+        // sends through the receiver's thread, no own thread or socket context
+        final PublisherRequester requester = new PublisherRequester(receiver);
+
+        final Runnable stopTask = new Runnable() {
+            @Override
+            public void run() {
+                if (sStandby.get(key) == Connection.this) sStandby.remove(key);
+                stop();
+            }
+        };
+
+        Connection(String key) {
+            this.key = key;
+        }
+
+        void stop() {
+            receiver.stop();
         }
+    }
 
+    private final VsyncEventDispatcher.Callback mFrameCallback = new VsyncEventDispatcher.Callback() {
         @Override
-        protected void handleEvent(PublisherEvent base) {
-            try {
-                AdvancedGestureActivity.this.handleEvent(base);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+        public void onFrameEvents(List<PublisherEvent> events, long frameTimeNanos) {
+            handleEvents(events);
+            final LatencyTracker tracker = getLatencyTracker();
+            if (tracker != null) tracker.recordFrame(events, System.nanoTime());
         }
     };
 
-    private final PublisherRequester mRequester = new PublisherRequester();
+    // set between onResume and onPause
+    private Connection mConnection;
+    private volatile long mResumeLatencyNanos = -1;
+
+    private EventQueue mEventQueue;
+    private EventQueue mMotionQueue;
+    private boolean mEventQueueCreated = false;
+
+    // set in onResume if isVsyncDelivery()
+    private volatile VsyncEventDispatcher mVsyncDispatcher;
 
     /**
      * Event types to receive. Override this method to implement a custom filter.
@@ -67,23 +151,152 @@ public class AdvancedGestureActivity extends AppCompatActivity {
         return "localhost";
     }
 
+    /**
+     * Queue used to deliver events on the main thread. Override this method to decouple the
+     * receiving of events from your event handling, see {@link PublisherListener#setEventQueue}.
+     * Called once.
+     * @return a new {@link EventQueue} or null to handle events on the receiving thread (default)
+     */
+    protected EventQueue createEventQueue() {
+        return null;
+    }
+
+    /**
+     * Queue for air mouse events, so they are delivered after gestures and other control events
+     * which arrived at the same time, see {@link PublisherListener#setMotionQueue}.
+     * Only used if {@link #createEventQueue()} returns a queue. Called once.
+     * @return a new {@link EventQueue} or null to deliver all events through the event queue (default)
+     */
+    protected EventQueue createMotionQueue() {
+        return null;
+    }
+
+    /**
+     * Whether events are delivered on the main thread once per frame. Override this method to
+     * return true, then {@link #handleEvents(List)} is called on the main thread right before a frame
+     * is drawn, with everything received since the last frame. Consecutive air mouse moves are
+     * merged into one move. See {@link VsyncEventDispatcher}.
+     * The queues from {@link #createEventQueue()} are not used in this mode.
+     * @return true for frame aligned delivery, false to deliver on the receiving thread (default)
+     */
+    protected boolean isVsyncDelivery() {
+        return false;
+    }
+
+    /**
+     * How long the connection to the publisher is kept after onPause. Override this method to
+     * enable the warm standby: events received while paused are dropped, but if the activity
+     * (or a new instance of the same activity, i.e. after a rotation) resumes within this time,
+     * the connection is reused and the first events after resume are not lost to a reconnect.
+     * Use {@link #getResumeLatencyNanos()} to compare the resume to first event latency.
+     * @return standby time in milliseconds, 0 to disconnect in onPause (default)
+     */
+    protected long getStandbyMillis() {
+        return 0;
+    }
+
+    /**
+     * Whether the latency of every event is recorded. Override this method to return true, then
+     * {@link #getLatencyTracker()} has histograms from socket receive to event handling.
+     * @return true to track latencies, false otherwise (default)
+     */
+    protected boolean isLatencyTracking() {
+        return false;
+    }
+
+    /**
+     * Latency histograms of the received events, see {@link #isLatencyTracking()}.
+     * Use {@link LatencyTracker#dump()} to log them.
+     * @return the tracker or null if latencies are not tracked
+     */
+    protected LatencyTracker getLatencyTracker() {
+        final Connection connection = mConnection;
+        return connection != null ? connection.receiver.getLatencyTracker() : null;
+    }
+
+    /**
+     * Time between the last onResume and the first event delivered after it.
+     * @return latency in nanoseconds or -1 if no event was delivered since the last resume
+     */
+    protected long getResumeLatencyNanos() {
+        return mResumeLatencyNanos;
+    }
+
+    /**
+     * The queue created by {@link #createEventQueue()}, i.e. to read queue depth and drop counts.
+     * @return the queue or null if events are handled on the receiving thread
+     */
+    protected EventQueue getEventQueue() {
+        return mConnection != null ? mConnection.receiver.getEventQueue() : mEventQueue;
+    }
+
     @Override
     protected void onResume() {
-        mReceiver.setEventTypes(getEventTypes());
-        mReceiver.start(getPublisherIP());
-        mRequester.start(getPublisherIP());
+        if (!mEventQueueCreated) {
+            mEventQueue = createEventQueue();
+            if (mEventQueue != null) mMotionQueue = createMotionQueue();
+            mEventQueueCreated = true;
+        }
+        if (sMainHandler == null) sMainHandler = new Handler(Looper.getMainLooper());
+
+        final String ip = getPublisherIP();
+        final String key = getClass().getName() + "@" + ip;
+        Connection connection = sStandby.remove(key);
+        if (connection != null) {
+            // warm standby, keep the running connection
+            sMainHandler.removeCallbacks(connection.stopTask);
+        } else {
+            connection = new Connection(key);
+            if (isLatencyTracking()) connection.receiver.setLatencyTracker(new LatencyTracker());
+            if (!isVsyncDelivery()) {
+                connection.receiver.setEventQueue(mEventQueue, getMainLooper());
+                connection.receiver.setMotionQueue(mMotionQueue);
+            }
+        }
+        mConnection = connection;
+
+        if (isVsyncDelivery()) {
+            // the dispatcher already decouples the main thread, moves go to it directly
+            if (mVsyncDispatcher == null) mVsyncDispatcher = new VsyncEventDispatcher(mFrameCallback);
+            connection.receiver.setMouseEventListener(mVsyncDispatcher);
+        } else {
+            mVsyncDispatcher = null;
+            connection.receiver.setMouseEventListener(null);
+        }
+        connection.receiver.setEventTypes(getEventTypes());
+
+        mResumeLatencyNanos = -1;
+        connection.resumedAt = System.nanoTime();
+        connection.target = this;
+        connection.receiver.start(ip);
         super.onResume();
     }
 
     @Override
     protected void onPause() {
-        mReceiver.stop();
-        mRequester.stop();
+        final Connection connection = mConnection;
+        mConnection = null;
+        connection.target = null;
+        connection.receiver.setMouseEventListener(null);
+
+        final long standby = getStandbyMillis();
+        if (standby > 0) {
+            final Connection previous = sStandby.put(connection.key, connection);
+            if (previous != null && previous != connection) {
+                sMainHandler.removeCallbacks(previous.stopTask);
+                previous.stop();
+            }
+            sMainHandler.postDelayed(connection.stopTask, standby);
+        } else {
+            connection.stop();
+        }
+        if (mVsyncDispatcher != null) mVsyncDispatcher.clear();
         super.onPause();
     }
 
     protected void requestOrientationReset() {
-        mRequester.requestOrientationReset();
+        final Connection connection = mConnection;
+        if (connection != null) connection.requester.requestOrientationReset();
     }
 
     /**
@@ -94,4 +307,21 @@ public class AdvancedGestureActivity extends AppCompatActivity {
     protected void handleEvent(PublisherEvent event) throws JSONException {
 
     }
+
+    /**
+     * Called with all events received together. Override this method to handle a burst of events
+     * at once, i.e. with a single {@link #runOnUiThread(Runnable)}.
+     * By default {@link #handleEvent(PublisherEvent)} is called for each event.
+     * The list is reused after this method returned, copy it to keep the events.
+     * @param events the received events
+     */
+    protected void handleEvents(List<PublisherEvent> events) {
+        for (int i = 0; i < events.size(); ++i) {
+            try {
+                handleEvent(events.get(i));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
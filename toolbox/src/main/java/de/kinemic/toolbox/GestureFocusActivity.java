@@ -25,6 +25,7 @@ import android.widget.ListView;
 
 import org.json.JSONException;
 
+import de.kinemic.toolbox.event.GestureId;
 import de.kinemic.toolbox.event.PublisherEvent;
 import de.kinemic.toolbox.focus.ActionStrategy;
 
@@ -217,23 +218,23 @@ public class GestureFocusActivity extends AdvancedGestureActivity {
             PublisherEvent.Gesture g = event.asGesture();
             Log.d(TAG_ACTION, "got gesture: " + g.name);
 
-            switch (g.name) {
-                case "Swipe R":
+            switch (g.id) {
+                case GestureId.SWIPE_R:
                     runOnUiThread(mRightFocusTask);
                     break;
-                case "Swipe L":
+                case GestureId.SWIPE_L:
                     runOnUiThread(mLeftFocusTask);
                     break;
-                case "Swipe Up":
+                case GestureId.SWIPE_UP:
                     runOnUiThread(mUpFocusTask);
                     break;
-                case "Swipe Down":
+                case GestureId.SWIPE_DOWN:
                     runOnUiThread(mDownFocusTask);
                     break;
-                case "Rotate RL":
+                case GestureId.ROTATE_RL:
                     runOnUiThread(mSelectTask);
                     break;
-                case "Rotate LR":
+                case GestureId.ROTATE_LR:
                     runOnUiThread(mBackTask);
                     break;
             }
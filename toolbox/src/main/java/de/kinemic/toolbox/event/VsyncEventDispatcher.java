@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects events on the receiving thread and hands them to the main thread once per frame.
+ * Instead of one main looper message per event, everything received since the last frame is
+ * delivered in order with a single {@link Callback#onFrameEvents(List, long)} call, right before
+ * the frame is drawn ({@link Choreographer}).
+ *
+ * Air mouse moves are accumulated while they are received: consecutive moves end up as one move
+ * with the summed up deltas, they are never merged across other events.
+ * Use this class as {@link MouseEventListener} to accumulate moves without creating an event per move.
+ *
+ * {@link #post(List)}, {@link #post(PublisherEvent)} and {@link #onMouseMove(double, double, boolean)}
+ * can be called from any one thread, {@link #clear()} has to be called on the main thread.
+ */
+public final class VsyncEventDispatcher implements MouseEventListener {
+
+    /**
+     * Receives the events of a frame on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called once per frame if events were received since the last frame.
+         * The list is reused after this method returned, copy it to keep the events.
+         * @param events the events in order, never empty
+         * @param frameTimeNanos the frame time, see {@link Choreographer.FrameCallback#doFrame(long)}
+         */
+        void onFrameEvents(@NonNull List<PublisherEvent> events, long frameTimeNanos);
+    }
+
+    private final Callback mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // guarded by mLock
+    private final Object mLock = new Object();
+    private ArrayList<PublisherEvent> mPending = new ArrayList<>();
+    private final MouseMoveAccumulator mPendingMoves = new MouseMoveAccumulator();
+    private PublisherEvent mPendingMove;
+    private boolean mFrameScheduled;
+
+    // accessed from the main thread
+    private ArrayList<PublisherEvent> mDelivering = new ArrayList<>();
+
+    /**
+     * Create a new dispatcher.
+     * @param callback receives the events on the main thread
+     */
+    public VsyncEventDispatcher(@NonNull Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Add events for the next frame.
+     * @param events events in order
+     */
+    public void post(@NonNull List<PublisherEvent> events) {
+        synchronized (mLock) {
+            for (int i = 0; i < events.size(); ++i) {
+                add(events.get(i));
+            }
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Add an event for the next frame.
+     * @param event the event
+     */
+    public void post(@NonNull PublisherEvent event) {
+        synchronized (mLock) {
+            add(event);
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Add an air mouse move for the next frame, it is merged with the moves before it.
+     */
+    @Override
+    public void onMouseMove(double dx, double dy, boolean palmVertical) {
+        synchronized (mLock) {
+            mPendingMoves.add(dx, dy, palmVertical);
+            mPendingMove = null;
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Drop all events which were not delivered yet. Call on the main thread, i.e. in onPause.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mPending.clear();
+            mPendingMoves.reset();
+            mPendingMove = null;
+            if (mFrameScheduled) {
+                mMainHandler.removeCallbacks(mScheduleFrame);
+                Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+                mFrameScheduled = false;
+            }
+        }
+    }
+
+    /* guarded by mLock */
+    private void add(PublisherEvent event) {
+        if (event.type == PublisherEvent.Type.MouseEvent) {
+            try {
+                final PublisherEvent.MouseEvent mouse = event.asMouseEvent();
+                if (mouse.type == PublisherEvent.MouseEvent.Type.Move) {
+                    // keep the event itself if it is not merged with another move
+                    mPendingMove = mPendingMoves.isEmpty() ? event : null;
+                    mPendingMoves.add(mouse.dx, mouse.dy, mouse.palmVertical);
+                    mPendingMoves.addStamps(event);
+                    return;
+                }
+            } catch (JSONException e) {
+                // not a valid move, deliver as is
+            }
+        }
+        flushMoves();
+        mPending.add(event);
+    }
+
+    /* guarded by mLock */
+    private void flushMoves() {
+        if (mPendingMoves.isEmpty()) return;
+        mPending.add(mPendingMove != null ? mPendingMove : mPendingMoves.toEvent());
+        mPendingMoves.reset();
+        mPendingMove = null;
+    }
+
+    /* guarded by mLock */
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            // the choreographer belongs to the main thread
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            } else {
+                mMainHandler.post(mScheduleFrame);
+            }
+        }
+    }
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            final ArrayList<PublisherEvent> events;
+            synchronized (mLock) {
+                mFrameScheduled = false;
+                flushMoves();
+                events = mPending;
+                mPending = mDelivering;
+                mDelivering = events;
+            }
+            if (events.isEmpty()) return;
+            try {
+                mCallback.onFrameEvents(events, frameTimeNanos);
+            } finally {
+                events.clear();
+            }
+        }
+    };
+}
@@ -23,6 +23,7 @@ import android.content.Intent;
 import org.json.JSONException;
 
 import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
 
 /**
  * A {@link BroadcastReceiver} for events of the kinemic publisher.
@@ -36,15 +37,33 @@ public abstract class PublisherEventReceiver extends BroadcastReceiver {
      */
     public static final String ACTION = PublisherEvent.ACTION_EVENT;
 
+    private final EventMetrics mMetrics = new EventMetrics();
+
+    /**
+     * Counters of this receiver: received broadcasts and their json length, events per type and parse failures.
+     * Use {@link EventMetrics#snapshot()} to read them.
+     * @return the metrics of this receiver
+     */
+    public EventMetrics getMetrics() {
+        return mMetrics;
+    }
+
     @Override
     public final void onReceive(Context context, Intent intent) {
         if (PublisherEvent.ACTION_EVENT.equals(intent.getAction())) {
             final String json = intent.getStringExtra(PublisherEvent.BROADCAST_JSON);
+            final PublisherEvent event;
             try {
-                handleEvent(PublisherEvent.fromJson(json));
+                event = PublisherEvent.fromJson(json);
             } catch (JSONException e) {
                 // this should not happen, since we send the event
+                mMetrics.recordParseFailure();
+                return;
+            } finally {
+                mMetrics.recordMessage(json != null ? json.length() : 0);
             }
+            mMetrics.recordEvent(event.type);
+            handleEvent(event);
         }
     }
 
@@ -23,6 +23,7 @@ import android.content.Intent;
 import org.json.JSONException;
 
 import de.kinemic.toolbox.event.PublisherLog;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
 
 /**
  * A {@link BroadcastReceiver} for log messages of the kinemic publisher.
@@ -36,15 +37,32 @@ public abstract class PublisherLogReceiver extends BroadcastReceiver {
      */
     public static final String ACTION = PublisherLog.ACTION_LOG;
 
+    private final EventMetrics mMetrics = new EventMetrics();
+
+    /**
+     * Counters of this receiver: received broadcasts, their json length and parse failures.
+     * Use {@link EventMetrics#snapshot()} to read them.
+     * @return the metrics of this receiver
+     */
+    public EventMetrics getMetrics() {
+        return mMetrics;
+    }
+
     @Override
     public final void onReceive(Context context, Intent intent) {
         if (PublisherLog.ACTION_LOG.equals(intent.getAction())) {
             final String json = intent.getStringExtra(PublisherLog.BROADCAST_JSON);
+            final PublisherLog log;
             try {
-                handleLog(PublisherLog.fromJson(json));
+                log = PublisherLog.fromJson(json);
             } catch (JSONException e) {
                 // this should not happen, since we send the event
+                mMetrics.recordParseFailure();
+                return;
+            } finally {
+                mMetrics.recordMessage(json != null ? json.length() : 0);
             }
+            handleLog(log);
         }
     }
 
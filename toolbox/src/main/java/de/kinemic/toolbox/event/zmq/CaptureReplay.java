@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Feeds a capture written by {@link CaptureWriter} into a {@link PublisherListener}, instead of a
+ * connection to a Publisher. The recorded frames pass the same decoding, filtering, batching and
+ * delivery as received frames, so a replay reproduces a recorded session, i.e. for load tests.
+ *
+ * Messages are replayed in real time, with the recorded gaps between them, or as fast as possible.
+ * The times are taken from a {@link ReplayClock}, use a {@link VirtualClock} for deterministic tests.
+ *
+ * The listener must not be started during a replay, events are delivered on the replaying thread
+ * (or the listener's delivery looper if it has an event queue). Stamps and latencies are in the
+ * time of the clock.
+ */
+public final class CaptureReplay implements Runnable {
+    private final CaptureReader mReader;
+    private final PublisherListener mListener;
+    private volatile ReplayClock mClock = ReplayClock.SYSTEM;
+    private volatile boolean mRealTime = true;
+    private volatile boolean mStopped;
+    private volatile long mReplayed;
+
+    /**
+     * Create a replay, starting at the current position of the reader.
+     * @param reader the capture
+     * @param listener the listener to feed
+     */
+    public CaptureReplay(@NonNull CaptureReader reader, @NonNull PublisherListener listener) {
+        mReader = reader;
+        mListener = listener;
+    }
+
+    /**
+     * Replay with the recorded gaps between messages, or as fast as possible.
+     * Messages replayed as fast as possible are delivered in batches like a backlog of the socket.
+     * Default is real time.
+     * @param realTime true for real time
+     */
+    public void setRealTime(boolean realTime) {
+        mRealTime = realTime;
+    }
+
+    /**
+     * Set the time source. Default is {@link ReplayClock#SYSTEM}.
+     * @param clock the clock
+     */
+    public void setClock(@NonNull ReplayClock clock) {
+        if (clock == null) throw new IllegalArgumentException("clock must not be null");
+        mClock = clock;
+    }
+
+    /**
+     * Number of replayed messages, including messages which were filtered out by the listener.
+     * @return replayed messages
+     */
+    public long getReplayedCount() {
+        return mReplayed;
+    }
+
+    /**
+     * Stop a running replay after the current message.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Replay the capture until its end or until {@link #stop()} is called.
+     * Returns early if the thread is interrupted while waiting in real time.
+     * @throws IllegalStateException if the listener is started
+     */
+    @Override
+    public void run() {
+        final PublisherListener listener = mListener;
+        final ReplayClock clock = mClock;
+        final boolean realTime = mRealTime;
+        final int maxBatchSize = listener.getMaxBatchSize();
+        final CaptureReader.Record record = new CaptureReader.Record();
+
+        listener.beginReplay(clock);
+        long offset = 0;
+        boolean first = true;
+        int batched = 0;
+        try {
+            while (!mStopped && mReader.next(record)) {
+                if (first) {
+                    // recorded times are moved to the clock's time
+                    offset = clock.nanoTime() - record.timeNanos;
+                    first = false;
+                }
+                final long nanos = record.timeNanos + offset;
+                if (realTime) {
+                    clock.sleepUntil(nanos);
+                }
+                final long now = realTime ? nanos : clock.nanoTime();
+                if (record.isLog()) {
+                    listener.replayLog(record.getTopic(), record.getData(), now);
+                } else {
+                    listener.replayEvent(record.topicLength < 0 ? null : record.topic, record.topicLength,
+                            record.data, record.length, now);
+                    ++batched;
+                }
+                mReplayed++;
+                if (realTime || batched >= maxBatchSize) {
+                    listener.flushReplay();
+                    batched = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            listener.flushReplay();
+        }
+    }
+}
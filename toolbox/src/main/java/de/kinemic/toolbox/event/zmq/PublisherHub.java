@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.PublisherLog;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
+
+/**
+ * Process wide, reference counted connection to a Publisher which is shared by multiple consumers.
+ * There is one hub (one receiving thread, one socket) per publisher address. Every message is
+ * decoded once and passed to all consumers whose event types match, using the same prefix
+ * matching as the Publisher's topics ("" matches every type).
+ * The hub subscribes to the union of the consumers' event types only.
+ *
+ * <pre>
+ * PublisherHub hub = PublisherHub.acquire("localhost");
+ * hub.register(consumer, "Gesture", "Activation");
+ * ...
+ * hub.unregister(consumer);
+ * hub.release();
+ * </pre>
+ */
+public final class PublisherHub {
+
+    /**
+     * Receives the events of a {@link PublisherHub}.
+     */
+    public interface Consumer {
+        /**
+         * Called with the matching events received together, in order.
+         * Called on the hub's receiving thread, don't block.
+         * The list is reused after this method returned, copy it to keep the events.
+         * @param events the events, never empty
+         */
+        void handleEvents(@NonNull List<PublisherEvent> events);
+    }
+
+    /* a registered consumer, the batch is only accessed from the receiving thread */
+    private static final class Entry {
+        final Consumer consumer;
+        final String[] types;
+        final ArrayList<PublisherEvent> batch = new ArrayList<>();
+
+        Entry(Consumer consumer, String[] types) {
+            this.consumer = consumer;
+            this.types = types;
+        }
+    }
+
+    /* immutable, consumers per event type ordinal and all consumers */
+    private static final class Routes {
+        final Entry[][] byType;
+        final Entry[] entries;
+
+        Routes(Entry[][] byType, Entry[] entries) {
+            this.byType = byType;
+            this.entries = entries;
+        }
+    }
+
+    private static final Map<String, PublisherHub> sHubs = new HashMap<>();
+
+    private final String mIp;
+    // guarded by sHubs
+    private int mReferences;
+
+    // guarded by this
+    private final TopicTrie<Entry> mTrie = new TopicTrie<>();
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+    // replaced on change, read from the receiving thread
+    private volatile Routes mRoutes = new Routes(new Entry[PublisherEvent.Type.values().length][0], new Entry[0]);
+
+    private final PublisherListener mListener = new PublisherListener() {
+        @Override
+        protected void handleLog(PublisherLog log) {
+        }
+
+        @Override
+        protected void handleEvent(PublisherEvent base) {
+        }
+
+        @Override
+        protected void handleEvents(List<PublisherEvent> events) {
+            dispatch(events);
+        }
+    };
+
+    private PublisherHub(String ip) {
+        mIp = ip;
+        mListener.setEventTypes();
+    }
+
+    /**
+     * Get the hub of a publisher address, connecting on first use.
+     * Every call has to be balanced with {@link #release()}.
+     * @param ip ip address like "127.0.0.1"
+     * @return the shared hub
+     */
+    public static @NonNull PublisherHub acquire(@NonNull String ip) {
+        synchronized (sHubs) {
+            PublisherHub hub = sHubs.get(ip);
+            if (hub == null) {
+                hub = new PublisherHub(ip);
+                hub.mListener.start(ip);
+                sHubs.put(ip, hub);
+            }
+            hub.mReferences++;
+            return hub;
+        }
+    }
+
+    /**
+     * Release a reference from {@link #acquire(String)}, the connection is closed with the last one.
+     */
+    public void release() {
+        synchronized (sHubs) {
+            if (mReferences == 0) throw new IllegalStateException("hub was already released");
+            if (--mReferences == 0) {
+                mListener.stop();
+                sHubs.remove(mIp);
+            }
+        }
+    }
+
+    /**
+     * Register a consumer for event types.
+     * A consumer which is already registered gets the new event types.
+     * @param consumer the consumer
+     * @param types list of event types ("Gesture", "Writing", "MouseEvent", "Activation", "Heartbeat"),
+     *              "" for all
+     */
+    public synchronized void register(@NonNull Consumer consumer, String... types) {
+        remove(consumer);
+        final Entry entry = new Entry(consumer, types.clone());
+        mEntries.add(entry);
+        for (String type : entry.types) mTrie.add(type, entry);
+        update();
+    }
+
+    /**
+     * Unregister a consumer.
+     * @param consumer the consumer
+     */
+    public synchronized void unregister(@NonNull Consumer consumer) {
+        if (remove(consumer)) update();
+    }
+
+    /**
+     * Number of event messages received by this hub, see {@link PublisherListener#getReceivedMessageCount()}.
+     * @return received event messages
+     */
+    public long getReceivedMessageCount() {
+        return mListener.getReceivedMessageCount();
+    }
+
+    /**
+     * Counters of this hub, see {@link PublisherListener#getMetrics()}.
+     * @return the metrics of the shared connection
+     */
+    public @NonNull EventMetrics getMetrics() {
+        return mListener.getMetrics();
+    }
+
+    /* guarded by this */
+    private boolean remove(Consumer consumer) {
+        for (int i = 0; i < mEntries.size(); ++i) {
+            final Entry entry = mEntries.get(i);
+            if (entry.consumer == consumer) {
+                for (String type : entry.types) mTrie.remove(type, entry);
+                mEntries.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* guarded by this, rebuilds the routes and the subscriptions */
+    private void update() {
+        final PublisherEvent.Type[] types = PublisherEvent.Type.values();
+        final Entry[][] byType = new Entry[types.length][];
+        final ArrayList<Entry> matches = new ArrayList<>();
+        for (PublisherEvent.Type type : types) {
+            matches.clear();
+            mTrie.match(type.jsonType, matches);
+            byType[type.ordinal()] = matches.toArray(new Entry[matches.size()]);
+        }
+        mRoutes = new Routes(byType, mEntries.toArray(new Entry[mEntries.size()]));
+
+        final LinkedHashSet<String> topics = new LinkedHashSet<>();
+        for (Entry entry : mEntries) {
+            for (String type : entry.types) topics.add(type);
+        }
+        mListener.setEventTypes(topics.contains("") ? new String[] {""} : topics.toArray(new String[topics.size()]));
+    }
+
+    /* called from the receiving thread */
+    private void dispatch(List<PublisherEvent> events) {
+        final Routes routes = mRoutes;
+        for (int i = 0; i < events.size(); ++i) {
+            final PublisherEvent event = events.get(i);
+            for (Entry entry : routes.byType[event.type.ordinal()]) {
+                entry.batch.add(event);
+            }
+        }
+        for (Entry entry : routes.entries) {
+            if (entry.batch.isEmpty()) continue;
+            try {
+                entry.consumer.handleEvents(entry.batch);
+            } finally {
+                entry.batch.clear();
+            }
+        }
+    }
+}
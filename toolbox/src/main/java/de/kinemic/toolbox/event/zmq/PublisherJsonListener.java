@@ -25,16 +25,24 @@ import android.util.Log;
 
 import org.json.JSONException;
 import org.zeromq.ZActor;
+import org.zeromq.ZAgent;
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 import org.zeromq.ZPoller;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import de.kinemic.toolbox.event.MouseEventListener;
 import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.metrics.EventMetrics;
+import de.kinemic.toolbox.event.metrics.LossTracker;
 
 import static org.zeromq.ZSocket.UTF8;
 
@@ -44,55 +52,345 @@ import static org.zeromq.ZSocket.UTF8;
  */
 abstract class PublisherJsonListener {
 
+    /** Default for {@link #setMaxBatchSize(int)}. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = EventReceiver.DEFAULT_MAX_BATCH_SIZE;
+
     // accessed from the ioThread
     private ZActor mActor;
     private ZMQ.Socket mPipe;
 
-    // FIXME: currently accessed from 2 threads, but readonly access after thread started
-    private ArrayList<String> mTopics;
-    private ArrayList<String> mLogLevels;
+    // receives on the actor thread or the replay thread
+    private final EventReceiver mReceiver = new Receiver();
+    // receive the additional sources on the actor thread, only changed while not started
+    private volatile EventReceiver[] mSourceReceivers = new EventReceiver[0];
+
+    private volatile boolean mMotionSubscription;
+    private volatile boolean mRequestsEnabled;
+    private volatile TransportConfig mTransport = TransportConfig.DEFAULT;
+    // options applied to the event socket, -1 while not running
+    private volatile long mAppliedHighWaterMark = -1;
+    private volatile long mAppliedBufferSize = -1;
+    // requests on their way to the actor, by id
+    private final ConcurrentHashMap<Long, PublisherRequest> mPendingRequests = new ConcurrentHashMap<>();
+
+    // immutable snapshots, replaced on change and applied by the actor thread
+    private volatile String[] mTopics = {""};
+    private volatile String[] mLogLevels = {};
+
+    // time source of the last replay, null while receiving from the publisher
+    private volatile ReplayClock mReplayClock;
 
     // accessed from main thread (or calling thread)
     private HandlerThread mIOThread;
-    private Handler mIOHandler;
+    private volatile Handler mIOHandler;
 
     /**
      * Create a new listener.
      */
     PublisherJsonListener() {
-        mTopics = new ArrayList<>();
-        mTopics.add("");
-        mLogLevels = new ArrayList<>();
     }
 
-    // TODO: move this method inside handler
     /**
      * Set which log levels should be received.
-     * Has to be called before {@link #start()}
+     * Can be changed at any time, a running listener only updates its subscriptions.
      * Default is to receive no log events.
      * @param levels list of log levels ("verbose", "debug", "info", "warn", "error")
      */
-    public void setLogLevels(String... levels) {
-        if (mActor == null) {
-            mLogLevels.clear();
-            Collections.addAll(mLogLevels, levels);
-        }
+    public synchronized void setLogLevels(String... levels) {
+        mLogLevels = levels.clone();
+        updateSubscriptions();
     }
 
-    // TODO: move this method inside handler
     /**
      * Set the event types to listen for.
-     * Has to be called before {@link #start()}
+     * Can be changed at any time, a running listener only updates its subscriptions
+     * without reconnecting.
      * Default is to accept all event types.
      * @param types list of event types ("Gesture", "Writing", "MouseEvent", "Activation", "Heartbeat")
      */
-    public void setEventTypes(String... types) {
-        if (mActor == null) {
-            mTopics.clear();
-            Collections.addAll(mTopics, types);
+    public synchronized void setEventTypes(String... types) {
+        mTopics = types.clone();
+        updateSubscriptions();
+    }
+
+    /**
+     * Start listening for an additional event type, see {@link #setEventTypes(String...)}.
+     * @param type event type like "Gesture"
+     */
+    public synchronized void addEventType(String type) {
+        final String[] topics = mTopics;
+        if (Arrays.asList(topics).contains(type)) return;
+        final String[] updated = Arrays.copyOf(topics, topics.length + 1);
+        updated[topics.length] = type;
+        setEventTypes(updated);
+    }
+
+    /**
+     * Stop listening for an event type, see {@link #setEventTypes(String...)}.
+     * Only removes the type itself, use {@link #setEventTypes(String...)} to narrow down "" (all types).
+     * @param type event type like "Gesture"
+     */
+    public synchronized void removeEventType(String type) {
+        final ArrayList<String> updated = new ArrayList<>(Arrays.asList(mTopics));
+        if (updated.remove(type)) {
+            setEventTypes(updated.toArray(new String[updated.size()]));
         }
     }
 
+    /**
+     * The event types to listen for.
+     * @return a copy of the current event types
+     */
+    public String[] getEventTypes() {
+        return mTopics.clone();
+    }
+
+    /* whether events are stamped with their receive and decode time */
+    void setTimestamps(boolean timestamps) {
+        mReceiver.setTimestamps(timestamps);
+        for (EventReceiver receiver : mSourceReceivers) receiver.setTimestamps(timestamps);
+    }
+
+    /* connects the request socket, now if running or with the next start */
+    void enableRequests() {
+        if (mRequestsEnabled) return;
+        mRequestsEnabled = true;
+        final Handler handler = mIOHandler;
+        if (handler != null) {
+            handler.obtainMessage(IOHandler.MSG_ENABLE_REQUESTS).sendToTarget();
+        }
+    }
+
+    /* sends a request to the publisher through the actor, cancels it if not running */
+    void sendRequest(PublisherRequest request) {
+        final Handler handler = mIOHandler;
+        mPendingRequests.put(request.getId(), request);
+        if (handler == null || !handler.sendMessage(handler.obtainMessage(IOHandler.MSG_REQUEST, request))) {
+            mPendingRequests.remove(request.getId());
+            request.complete(PublisherRequest.State.CANCELLED);
+            return;
+        }
+        // times out even if the actor does not get to the request until its deadline
+        handler.sendMessageDelayed(handler.obtainMessage(IOHandler.MSG_EXPIRE, request), request.getRemainingMillis());
+    }
+
+    /* cancels all requests which were not sent */
+    private void cancelRequests() {
+        for (Long id : mPendingRequests.keySet()) {
+            final PublisherRequest request = mPendingRequests.remove(id);
+            if (request != null) request.complete(PublisherRequest.State.CANCELLED);
+        }
+    }
+
+    /* tells a running actor to apply the current snapshots */
+    private void updateSubscriptions() {
+        final Handler handler = mIOHandler;
+        if (handler != null) {
+            handler.obtainMessage(IOHandler.MSG_SUBSCRIBE).sendToTarget();
+        }
+    }
+
+    /**
+     * Set a listener which receives air mouse moves as primitives.
+     * If set, move events are passed to the listener instead of {@link #handleEvent(PublisherEvent)}
+     * and no event objects are created for them. Can be changed at any time.
+     * The listener is called on the receiving thread.
+     * @param listener the listener for moves or null to receive moves as {@link PublisherEvent}s
+     */
+    public void setMouseEventListener(MouseEventListener listener) {
+        mReceiver.setMouseEventListener(listener);
+        for (EventReceiver receiver : mSourceReceivers) receiver.setMouseEventListener(listener);
+    }
+
+    /**
+     * Set the maximum number of messages which are received in one wakeup of the receiving thread
+     * and delivered together with {@link #handleEvents(List)}.
+     * Use 1 to deliver every message on its own. Can be changed at any time.
+     * Default is {@link #DEFAULT_MAX_BATCH_SIZE}.
+     * @param maxBatchSize maximum batch size, at least 1
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        mReceiver.setMaxBatchSize(maxBatchSize);
+        for (EventReceiver receiver : mSourceReceivers) receiver.setMaxBatchSize(maxBatchSize);
+    }
+
+    /**
+     * Maximum number of messages delivered together, see {@link #setMaxBatchSize(int)}.
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return mReceiver.getMaxBatchSize();
+    }
+
+    /**
+     * Receive air mouse events on their own subscription (a second socket to the event port).
+     * The control socket then only subscribes to the other event types, so a flood of moves does not
+     * fill its receive queue, and pending control events are always read before pending motion events.
+     * Requires the publisher to send the event type as topic frame.
+     * Has to be called before {@link #start()}. Default is one subscription for all events.
+     * @param separate true to receive air mouse events on a separate subscription
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setSeparateMotionSubscription(boolean separate) {
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        mMotionSubscription = separate;
+    }
+
+    /**
+     * Receive events from an additional Publisher, i.e. for a multi sensor setup.
+     * All publishers are received on the one receiving thread of this listener and delivered
+     * merged to {@link #handleEvents(List)}. Events keep their order within each publisher and are
+     * tagged with their source, see {@link PublisherEvent#getSource()}; events of the publisher
+     * given to {@link #start(String)} are tagged with its address.
+     * Sources use the event types, the event port of the {@link TransportConfig} with their host and
+     * the {@link MouseEventListener} of this listener. Moves passed to the {@link MouseEventListener}
+     * do not tell their source, leave it unset to tell the moves of the sources apart.
+     * Their metrics are kept per source, the metrics, recorder, health monitor and idle mode of this
+     * listener only cover the publisher given to {@link #start(String)}.
+     * With {@link #setSeparateMotionSubscription(boolean)} air mouse events of sources are received
+     * on their own socket.
+     * Has to be called before {@link #start()}, requires a {@link TransportConfig} without an
+     * explicit event endpoint.
+     * @param source the publisher to receive from
+     * @throws IllegalStateException if the listener is started or its transport has an explicit event endpoint
+     */
+    public synchronized void addSource(PublisherSource source) {
+        if (source == null) throw new IllegalArgumentException("source must not be null");
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        if (mTransport.hasEventEndpoint()) {
+            throw new IllegalStateException("Sources require the event port, not an explicit event endpoint");
+        }
+        for (EventReceiver receiver : mSourceReceivers) {
+            if (receiver.getSource().getName().equals(source.getName())) {
+                throw new IllegalArgumentException("Duplicate source " + source.getName());
+            }
+        }
+        final EventReceiver receiver = new Receiver(source);
+        receiver.setMouseEventListener(mReceiver.getMouseEventListener());
+        receiver.setMaxBatchSize(mReceiver.getMaxBatchSize());
+        receiver.setTimestamps(mReceiver.isTimestamps());
+        final EventReceiver[] receivers = Arrays.copyOf(mSourceReceivers, mSourceReceivers.length + 1);
+        receivers[receivers.length - 1] = receiver;
+        mSourceReceivers = receivers;
+    }
+
+    /**
+     * The additional publishers of this listener, see {@link #addSource(PublisherSource)}.
+     * @return the sources in the order they were added
+     */
+    public PublisherSource[] getSources() {
+        final EventReceiver[] receivers = mSourceReceivers;
+        final PublisherSource[] sources = new PublisherSource[receivers.length];
+        for (int i = 0; i < receivers.length; ++i) sources[i] = receivers[i].getSource();
+        return sources;
+    }
+
+    /**
+     * Watch the connection through the heartbeats of the Publisher and reconnect if it stalls.
+     * Heartbeats are received for the monitor even if they are not in the event types.
+     * Has to be called before {@link #start()}. Default is no monitor.
+     * @param monitor the health monitor or null
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setHealthMonitor(HealthMonitor monitor) {
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        mReceiver.setHealthMonitor(monitor);
+    }
+
+    /**
+     * The health monitor of this listener, see {@link #setHealthMonitor(HealthMonitor)}.
+     * @return the health monitor or null
+     */
+    public HealthMonitor getHealthMonitor() {
+        return mReceiver.getHealthMonitor();
+    }
+
+    /**
+     * Unsubscribe high rate event types while the Publisher is inactive, see {@link IdleMode}.
+     * Activations and heartbeats are received for the idle mode even if they are not in the event types.
+     * Requires the publisher to send the event type as topic frame.
+     * Has to be called before {@link #start()}. Default is no idle mode.
+     * @param idleMode the idle mode or null
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setIdleMode(IdleMode idleMode) {
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        mReceiver.setIdleMode(idleMode);
+    }
+
+    /**
+     * The idle mode of this listener, see {@link #setIdleMode(IdleMode)}.
+     * @return the idle mode or null
+     */
+    public IdleMode getIdleMode() {
+        return mReceiver.getIdleMode();
+    }
+
+    /**
+     * Set the endpoints and socket options used to connect to the Publisher.
+     * Has to be called before {@link #start()}. Default is {@link TransportConfig#DEFAULT}.
+     * An explicit event endpoint can not be used together with {@link #addSource(PublisherSource)}.
+     * @param config the transport configuration
+     * @throws IllegalStateException if the listener is started
+     */
+    public synchronized void setTransportConfig(TransportConfig config) {
+        if (config == null) throw new IllegalArgumentException("config must not be null");
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        if (config.hasEventEndpoint() && mSourceReceivers.length > 0) {
+            throw new IllegalArgumentException("An explicit event endpoint can not be used with sources");
+        }
+        mTransport = config;
+    }
+
+    /**
+     * Endpoints and socket options used to connect to the Publisher.
+     * @return the transport configuration
+     */
+    public TransportConfig getTransportConfig() {
+        return mTransport;
+    }
+
+    /**
+     * Set the receive high water mark of the event sockets, the number of messages which are queued
+     * before the Publisher drops messages for this subscriber. A larger value survives longer stalls
+     * of the receiving thread, but a backlog delays all later events.
+     * Shortcut for {@link TransportConfig.Builder#receiveHighWaterMark(long)}, has to be called before {@link #start()}.
+     * @param messages maximum number of queued messages, 0 for no limit
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setReceiveHighWaterMark(int messages) {
+        setTransportConfig(mTransport.buildUpon().receiveHighWaterMark(messages).build());
+    }
+
+    /**
+     * Receive high water mark of the event sockets, see {@link #setReceiveHighWaterMark(int)}.
+     * @return the value applied to the sockets if the listener is running, else the configured value
+     */
+    public long getReceiveHighWaterMark() {
+        final long applied = mAppliedHighWaterMark;
+        return applied >= 0 ? applied : mTransport.getReceiveHighWaterMark();
+    }
+
+    /**
+     * Set the size of the kernel receive buffer (SO_RCVBUF) of the event sockets.
+     * Shortcut for {@link TransportConfig.Builder#receiveBufferSize(long)}, has to be called before {@link #start()}.
+     * @param bytes size of the buffer in bytes, 0 for the default
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setReceiveBufferSize(int bytes) {
+        setTransportConfig(mTransport.buildUpon().receiveBufferSize(bytes).build());
+    }
+
+    /**
+     * Kernel receive buffer size of the event sockets, see {@link #setReceiveBufferSize(int)}.
+     * @return the value applied to the sockets if the listener is running, else the configured value
+     */
+    public long getReceiveBufferSize() {
+        final long applied = mAppliedBufferSize;
+        return applied >= 0 ? applied : mTransport.getReceiveBufferSize();
+    }
+
     /**
      * Start the listener at a specified ip address.
      * The listener can be started again after it was stopped.
@@ -100,6 +398,7 @@ abstract class PublisherJsonListener {
      */
     public void start(String ip) {
         if (mIOThread == null) {
+            mReplayClock = null;
             mIOThread = new HandlerThread("EventListenerIO-helper");
             mIOThread.start();
             mIOHandler = new IOHandler(mIOThread.getLooper());
@@ -134,9 +433,87 @@ abstract class PublisherJsonListener {
         }
     }
 
-    private ZActor.Actor acting = new ZActor.SimpleActor() {
+    /**
+     * Number of event messages received since the listener was created.
+     * @return received event messages
+     */
+    public long getReceivedMessageCount() {
+        return mReceiver.getMessageCount();
+    }
+
+    /**
+     * Counters of this listener: received messages and bytes, events per type, parse failures,
+     * filtered out messages and dropped events. Updated while the listener is running,
+     * use {@link EventMetrics#snapshot()} to read them.
+     * @return the metrics of this listener
+     */
+    public EventMetrics getMetrics() {
+        return mReceiver.getMetrics();
+    }
+
+    /**
+     * Record all received messages to a capture file, including messages of types which are
+     * filtered out. Frames are written as received, before they are decoded, so a
+     * {@link CaptureReplay} reproduces the session. Can be changed at any time.
+     * The recorder is not closed by the listener.
+     * @param recorder the capture to write to or null to stop recording
+     */
+    public void setRecorder(CaptureWriter recorder) {
+        mReceiver.setRecorder(recorder);
+    }
+
+    /**
+     * Receive heartbeats for the loss estimate of {@link #getLossTracker()} even if they are not in
+     * the event types. Without sequence numbers of the Publisher the estimate is 0 without heartbeats.
+     * Can be changed at any time. Default is false.
+     * @param lossEstimation true to receive heartbeats for the loss estimate
+     */
+    public void setLossEstimation(boolean lossEstimation) {
+        mReceiver.setLossEstimation(lossEstimation);
+        updateSubscriptions();
+    }
+
+    /**
+     * Accounting of events which were lost before they were received, counted from gaps in the
+     * sequence numbers of the Publisher or estimated from missing heartbeats, see
+     * {@link #setLossEstimation(boolean)}. With a health monitor, gaps longer than its stall
+     * timeout are not counted.
+     * @return the loss tracker of this listener
+     */
+    public LossTracker getLossTracker() {
+        return mReceiver.getLossTracker();
+    }
+
+    /**
+     * Number of times an event message was parsed since the listener was created.
+     * Every received event message is parsed exactly once, so this equals
+     * {@link #getReceivedMessageCount()} if no message was dropped before parsing.
+     * @return number of parsed event messages
+     */
+    public long getParseCount() {
+        return mReceiver.getParseCount();
+    }
+
+    /* runs on the actor thread, a new one is created for every start so no state survives a restart */
+    private class Acting extends ZActor.SimpleActor {
         ZMQ.Socket mLogSub = null;
         ZMQ.Socket mEventSub = null;
+        ZMQ.Socket mMotionSub = null;
+        ZMQ.Socket mRequestPub = null;
+
+        String mIp = null;
+        TransportConfig mConfig = null;
+        boolean mRequestConnected = false;
+        boolean mLogConnected = false;
+        boolean mMotionConnected = false;
+        // subscriptions applied to the sockets
+        final HashSet<String> mLogSubscribed = new HashSet<>();
+        final HashSet<String> mEventSubscribed = new HashSet<>();
+        final HashSet<String> mMotionSubscribed = new HashSet<>();
+        // one socket per additional source, all on this thread
+        EventReceiver[] mSources = null;
+        ZMQ.Socket[] mSourceSubs = null;
+        final ArrayList<HashSet<String>> mSourceSubscribed = new ArrayList<>();
 
         @Override
         public List<ZMQ.Socket> createSockets(ZContext ctx, Object[] args) {
@@ -144,8 +521,29 @@ abstract class PublisherJsonListener {
 
             mLogSub = ctx.createSocket(ZMQ.SUB);
             mEventSub = ctx.createSocket(ZMQ.SUB);
+            mMotionSub = ctx.createSocket(ZMQ.SUB);
+            mRequestPub = ctx.createSocket(ZMQ.PUB);
+            // options have to be set before the sockets connect
+            mConfig = mTransport;
+            mConfig.apply(mLogSub);
+            mConfig.apply(mEventSub);
+            mConfig.apply(mMotionSub);
+            mConfig.apply(mRequestPub);
+            // report the values the socket actually uses
+            mAppliedHighWaterMark = mEventSub.getRcvHWM();
+            mAppliedBufferSize = mEventSub.getReceiveBufferSize();
 
-            return Arrays.asList(mLogSub, mEventSub);
+            final ArrayList<ZMQ.Socket> sockets = new ArrayList<>(Arrays.asList(mLogSub, mEventSub, mMotionSub, mRequestPub));
+            mSources = mSourceReceivers;
+            mSourceSubs = new ZMQ.Socket[mSources.length];
+            mSourceSubscribed.clear();
+            for (int i = 0; i < mSources.length; ++i) {
+                mSourceSubs[i] = ctx.createSocket(ZMQ.SUB);
+                mConfig.apply(mSourceSubs[i]);
+                mSourceSubscribed.add(new HashSet<String>());
+                sockets.add(mSourceSubs[i]);
+            }
+            return sockets;
         }
 
         @Override
@@ -153,28 +551,184 @@ abstract class PublisherJsonListener {
             String cmd = pipe.recvStr();
             if ("$TERM".equals(cmd)) {
                 // end of the actor
+                final HealthMonitor monitor = mReceiver.getHealthMonitor();
+                if (monitor != null) monitor.stop();
+                final IdleMode idleMode = mReceiver.getIdleMode();
+                if (idleMode != null) idleMode.stop();
+                cancelRequests();
                 return false;
             } else if ("START".equals(cmd)) {
-                String ip = "localhost";
-                if (pipe.hasReceiveMore()) ip = pipe.recvStr();
-                if (mLogLevels.size() > 0) {
-                    mLogSub.connect("tcp://" + ip + ":9996");
-                    for (String level : mLogLevels) {
-                        mLogSub.subscribe(level.getBytes(UTF8));
-                    }
-                    poller.register(mLogSub, ZMQ.Poller.POLLIN);
+                mIp = "localhost";
+                if (pipe.hasReceiveMore()) mIp = pipe.recvStr();
+                final IdleMode idleMode = mReceiver.getIdleMode();
+                if (idleMode != null) idleMode.start();
+                mReceiver.setSourceName(mIp);
+                mEventSub.connect(mConfig.getEventEndpoint(mIp));
+                poller.register(mEventSub, ZMQ.Poller.POLLIN);
+                for (int i = 0; i < mSources.length; ++i) {
+                    mSourceSubs[i].connect(mConfig.getEventEndpoint(mSources[i].getSource().getHost()));
+                    poller.register(mSourceSubs[i], ZMQ.Poller.POLLIN);
                 }
-
-                mEventSub.connect("tcp://" + ip + ":9999");
-                for (String level : mTopics) {
-                    mEventSub.subscribe(level.getBytes(UTF8));
+                subscribe(poller);
+                if (mRequestsEnabled) connectRequests();
+                final HealthMonitor monitor = mReceiver.getHealthMonitor();
+                if (monitor != null) {
+                    // a stall is no loss of the socket
+                    mReceiver.getLossTracker().setMaxHeartbeatGap(monitor.getStallTimeout());
+                    monitor.start(System.nanoTime());
                 }
-                poller.register(mEventSub, ZMQ.Poller.POLLIN);
                 return true;
+            } else if ("SUBSCRIBE".equals(cmd)) {
+                if (mIp != null) subscribe(poller);
+                return true;
+            } else if ("REQUESTS".equals(cmd)) {
+                if (mIp != null) connectRequests();
+                return true;
+            } else if ("REQUEST".equals(cmd)) {
+                final String id = pipe.hasReceiveMore() ? pipe.recvStr() : null;
+                final PublisherRequest request = id != null ? mPendingRequests.remove(Long.valueOf(id)) : null;
+                if (request != null && !request.completeIfExpired()) {
+                    final boolean sent = mRequestConnected && mRequestPub.send(request.json(), ZMQ.DONTWAIT);
+                    request.complete(sent ? PublisherRequest.State.SENT : PublisherRequest.State.CANCELLED);
+                }
+                return true;
+            }
+            return true;
+        }
+
+        @Override
+        public long looping(ZMQ.Socket pipe, ZPoller poller) {
+            if (mIp == null) return -1;
+            // wake up in time to detect a stall or to go idle
+            final long now = System.nanoTime();
+            final HealthMonitor monitor = mReceiver.getHealthMonitor();
+            final IdleMode idleMode = mReceiver.getIdleMode();
+            final long monitorTimeout = monitor != null ? monitor.getTimeoutMillis(now) : -1;
+            final long idleTimeout = idleMode != null ? idleMode.getTimeoutMillis(now) : -1;
+            if (monitorTimeout < 0) return idleTimeout;
+            if (idleTimeout < 0) return monitorTimeout;
+            return Math.min(monitorTimeout, idleTimeout);
+        }
+
+        @Override
+        public boolean looped(ZMQ.Socket pipe, ZPoller poller) {
+            if (mIp == null) return true;
+            final long now = System.nanoTime();
+            final HealthMonitor monitor = mReceiver.getHealthMonitor();
+            if (monitor != null && monitor.check(now)) {
+                reconnect();
+            }
+            final IdleMode idleMode = mReceiver.getIdleMode();
+            if (idleMode != null && idleMode.update(now)) {
+                subscribe(poller);
             }
             return true;
         }
 
+        /* drops the connections and connects again, zmq does not notice a peer which is gone without closing */
+        private void reconnect() {
+            Log.d("Actor", "reconnect");
+            reconnect(mEventSub, mConfig.getEventEndpoint(mIp));
+            if (mMotionConnected) reconnect(mMotionSub, mConfig.getEventEndpoint(mIp));
+            if (mLogConnected) reconnect(mLogSub, mConfig.getLogEndpoint(mIp));
+            if (mRequestConnected) reconnect(mRequestPub, mConfig.getRequestEndpoint(mIp));
+        }
+
+        private void reconnect(ZMQ.Socket socket, String endpoint) {
+            // subscriptions are kept by the socket and sent again on connect
+            socket.disconnect(endpoint);
+            socket.connect(endpoint);
+        }
+
+        private void connectRequests() {
+            if (!mRequestConnected) {
+                mRequestPub.connect(mConfig.getRequestEndpoint(mIp));
+                mRequestConnected = true;
+            }
+        }
+
+        /* applies the current topic and log level snapshots, only changed subscriptions are touched */
+        private void subscribe(ZPoller poller) {
+            final String[] levels = mLogLevels;
+            if (levels.length > 0 && !mLogConnected) {
+                mLogSub.connect(mConfig.getLogEndpoint(mIp));
+                poller.register(mLogSub, ZMQ.Poller.POLLIN);
+                mLogConnected = true;
+            }
+            updateSubscriptions(mLogSub, mLogSubscribed, new HashSet<>(Arrays.asList(levels)));
+
+            final List<String> topicList = applyTopics();
+
+            final IdleMode idleMode = mReceiver.getIdleMode();
+            final Set<String> idleTypes = idleMode != null && idleMode.isIdle()
+                    ? idleMode.getIdleEventTypes() : Collections.<String>emptySet();
+
+            if (mMotionSubscription || !idleTypes.isEmpty()) {
+                // one topic per type, while idle without the idle types
+                final HashSet<String> control = new HashSet<>();
+                final HashSet<String> motion = new HashSet<>();
+                for (PublisherEvent.Type type : PublisherEvent.Type.values()) {
+                    if (!mReceiver.accepts(type) || idleTypes.contains(type.jsonType)) continue;
+                    if (type == PublisherEvent.Type.MouseEvent) {
+                        // prefix of "MouseEvent" and "MouseToggle"
+                        motion.add("Mouse");
+                    } else {
+                        control.add(type.jsonType);
+                    }
+                }
+                addObservedTopics(control);
+                if (!mMotionSubscription) {
+                    control.addAll(motion);
+                    motion.clear();
+                }
+                if (!motion.isEmpty() && !mMotionConnected) {
+                    mMotionSub.connect(mConfig.getEventEndpoint(mIp));
+                    poller.register(mMotionSub, ZMQ.Poller.POLLIN);
+                    mMotionConnected = true;
+                }
+                updateSubscriptions(mEventSub, mEventSubscribed, control);
+                updateSubscriptions(mMotionSub, mMotionSubscribed, motion);
+            } else {
+                final HashSet<String> wanted = new HashSet<>(topicList);
+                addObservedTopics(wanted);
+                updateSubscriptions(mEventSub, mEventSubscribed, wanted);
+            }
+            // the idle mode only covers the publisher, the sources always get all event types
+            subscribeSources(new HashSet<>(topicList));
+        }
+
+        /* the sources get the event types of the listener, all on one socket */
+        private void subscribeSources(Set<String> topics) {
+            for (int i = 0; i < mSourceSubs.length; ++i) {
+                updateSubscriptions(mSourceSubs[i], mSourceSubscribed.get(i), topics);
+            }
+        }
+
+        /* adds the topics which are needed by the health monitor, idle mode or loss estimation but not in the event types */
+        private void addObservedTopics(Set<String> topics) {
+            final boolean monitored = mReceiver.getHealthMonitor() != null;
+            final boolean idleMode = mReceiver.getIdleMode() != null;
+            final boolean heartbeats = monitored || idleMode || mReceiver.isLossEstimation();
+            if (heartbeats && !mReceiver.accepts(PublisherEvent.Type.Heartbeat)) {
+                topics.add(PublisherEvent.Type.Heartbeat.jsonType);
+            }
+            if (idleMode && !mReceiver.accepts(PublisherEvent.Type.Activation)) {
+                topics.add(PublisherEvent.Type.Activation.jsonType);
+            }
+        }
+
+        private void updateSubscriptions(ZMQ.Socket socket, Set<String> subscribed, Set<String> wanted) {
+            // new topics first, so a topic covered by both is never unsubscribed in between
+            for (String topic : wanted) {
+                if (!subscribed.contains(topic)) socket.subscribe(topic.getBytes(UTF8));
+            }
+            for (String topic : subscribed) {
+                if (!wanted.contains(topic)) socket.unsubscribe(topic.getBytes(UTF8));
+            }
+            subscribed.clear();
+            subscribed.addAll(wanted);
+        }
+
         @Override
         public boolean stage(ZMQ.Socket socket, ZMQ.Socket pipe, ZPoller poller, int events) {
             if (socket == mLogSub && (events & ZMQ.Poller.POLLIN) != 0) {
@@ -182,33 +736,160 @@ abstract class PublisherJsonListener {
                 final String level = socket.recvStr();
                 if (socket.hasReceiveMore()) {
                     final String jsonLog = socket.recvStr();
-                    handleLog(level, jsonLog);
+                    mReceiver.receiveLog(level, jsonLog, System.nanoTime());
                 }
             } else if (socket == mEventSub && (events & ZMQ.Poller.POLLIN) != 0) {
-                final String part1 = socket.recvStr();
-                if (socket.hasReceiveMore()) {
-                    // two part messages indicate first part is topic
-                    final String jsonEvent = socket.recvStr().replace("null", "{}");
-                    handleEvent(part1, jsonEvent);
-                } else {
-                    try {
-                        PublisherEvent base = PublisherEvent.fromJson(part1);
-                        if (mTopics.contains(base.type.jsonType) || mTopics.contains("")) {
-                            handleEvent(base.type.jsonType, part1);
-                        }
-                    } catch (JSONException e) {
-                        Log.w("Events", "Could not parse json: " + part1, e);
+                mReceiver.receiveEvents(socket, 0);
+            } else if (socket == mMotionSub && (events & ZMQ.Poller.POLLIN) != 0) {
+                // pending control events go first
+                mReceiver.receiveEvents(mEventSub, ZMQ.DONTWAIT);
+                mReceiver.receiveEvents(socket, 0);
+            } else if ((events & ZMQ.Poller.POLLIN) != 0) {
+                for (int i = 0; i < mSourceSubs.length; ++i) {
+                    if (socket == mSourceSubs[i]) {
+                        // at most one batch per wakeup, so a busy source does not starve the others
+                        mSources[i].receiveEvents(socket, 0);
+                        break;
                     }
                 }
             }
 
             return true;
         }
-    };
+    }
+
+    /* called from the ioThread, starts a new actor connected to the ip or localhost if null */
+    void startActor(String ip) {
+        if (mActor != null) return;
+        // the actor creates its own context unless a shared one is given
+        mActor = new ZActor(mTransport.getContext(), new ZAgent.VerySimpleSelectorCreator(),
+                new Acting(), "EventListenerIO", new Object[0]);
+        mPipe = mActor.pipe();
+
+        if (ip != null) {
+            mPipe.send("START", ZMQ.SNDMORE);
+            mPipe.send(ip);
+        } else {
+            mPipe.send("START");
+        }
+    }
+
+    /* called from the ioThread, stops the actor and waits until it has ended */
+    void stopActor() {
+        if (mActor != null) {
+            mPipe.send("$TERM");
+            try {
+                mActor.exit().await();
+            } catch (InterruptedException e) {
+                Log.w("Event", e.getMessage(), e);
+            }
+            Log.d("Actor", "stopped");
+            mActor = null;
+            mAppliedHighWaterMark = -1;
+            mAppliedBufferSize = -1;
+        }
+        cancelRequests();
+    }
+
+    /* called from the actor thread or the replay thread, applies the topic snapshot to the received messages */
+    private List<String> applyTopics() {
+        final String[] topics = mTopics;
+        mReceiver.applyTopics(topics);
+        for (EventReceiver receiver : mSourceReceivers) receiver.applyTopics(topics);
+        return Arrays.asList(topics);
+    }
+
+    /* called from the replay thread while the listener is not started */
+    void replayEvent(byte[] topic, int topicLength, byte[] data, int length, long receivedNanos) {
+        mReceiver.receiveEvent(topic, topicLength, data, length, receivedNanos);
+    }
+
+    /* called from the replay thread while the listener is not started, returns false if the level is not subscribed */
+    boolean replayLog(String level, String json, long receivedNanos) {
+        for (String subscribed : mLogLevels) {
+            if (level.startsWith(subscribed)) {
+                mReceiver.receiveLog(level, json, receivedNanos);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* called from the replay thread before the first replayed message, the clock is kept until the next start */
+    void beginReplay(ReplayClock clock) {
+        if (isStarted()) throw new IllegalStateException("Listener must not be started during a replay");
+        mReplayClock = clock;
+        applyTopics();
+    }
+
+    /* time in which events are stamped, the clock of the last replay or the system clock */
+    long nanoTime() {
+        final ReplayClock clock = mReplayClock;
+        return clock != null ? EventReceiver.stamp(clock.nanoTime()) : System.nanoTime();
+    }
+
+    /* called from the replay thread, delivers the replayed events */
+    void flushReplay() {
+        mReceiver.flushBatch();
+    }
+
+    /* called from the actor thread, subclasses can deliver the events on another thread */
+    void dispatchEvents(List<PublisherEvent> events) {
+        handleEvents(events);
+    }
+
+    /* whether start() was called without stop() */
+    boolean isStarted() {
+        return mIOThread != null;
+    }
 
     protected abstract void handleLog(String level, String json);
 
-    protected abstract void handleEvent(String type, String json);
+    protected abstract void handleEvent(PublisherEvent event);
+
+    /**
+     * Called with all events received in one wakeup of the receiving thread, in order.
+     * Override this method to handle bursts at once, i.e. to post a single message to the main
+     * thread instead of one per event.
+     * The default implementation calls {@link #handleEvent(PublisherEvent)} for each event.
+     * The list is reused after this method returned, copy it to keep the events.
+     * @param events the received events, never empty
+     */
+    protected void handleEvents(List<PublisherEvent> events) {
+        for (int i = 0; i < events.size(); ++i) {
+            handleEvent(events.get(i));
+        }
+    }
+
+    /* delivers the events of all publishers to this listener */
+    private class Receiver extends EventReceiver {
+        Receiver() {
+        }
+
+        Receiver(PublisherSource source) {
+            super(source);
+        }
+
+        @Override
+        void dispatchEvents(List<PublisherEvent> events) {
+            PublisherJsonListener.this.dispatchEvents(events);
+        }
+
+        @Override
+        void dispatchLog(String level, String json) {
+            handleLog(level, json);
+        }
+
+        @Override
+        void onParseFailure(byte[] data, int length, JSONException e) {
+            Log.w("Events", "Could not parse json: " + new String(data, 0, length, UTF8), e);
+        }
+
+        @Override
+        void onRecordingFailure(IOException e) {
+            Log.w("Events", "Recording failed, recording stopped", e);
+        }
+    }
 
     /* this thread is used to call pipes' send message from outside the main thread.
      * This seams to only be a problem on wear and glass
@@ -216,6 +897,10 @@ abstract class PublisherJsonListener {
     private class IOHandler extends Handler {
         private static final int MSG_START = 1;
         private static final int MSG_STOP = 2;
+        private static final int MSG_SUBSCRIBE = 3;
+        private static final int MSG_ENABLE_REQUESTS = 4;
+        private static final int MSG_REQUEST = 5;
+        private static final int MSG_EXPIRE = 6;
 
         private IOHandler(Looper looper) {
             super(looper);
@@ -226,30 +911,38 @@ abstract class PublisherJsonListener {
             // this will run on non main thread, so its ok to access network here
             switch (msg.what) {
                 case MSG_START:
-                    if (mActor == null) {
-                        mActor = new ZActor(acting, "EventListenerIO");
-                        mPipe = mActor.pipe();
-
-                        if (msg.obj != null) {
-                            mPipe.send("START", ZMQ.SNDMORE);
-                            mPipe.send((String) msg.obj);
-                        } else {
-                            mPipe.send("START");
-                        }
+                    startActor((String) msg.obj);
+                    break;
+                case MSG_SUBSCRIBE:
+                    if (mActor != null) {
+                        mPipe.send("SUBSCRIBE");
                     }
                     break;
-                case MSG_STOP:
+                case MSG_ENABLE_REQUESTS:
                     if (mActor != null) {
-                        mPipe.send("$TERM");
-                        try {
-                            mActor.exit().await();
-                        } catch (InterruptedException e) {
-                            Log.w("Event", e.getMessage(), e);
-                        }
-                        Log.d("Actor", "stopped");
-                        mActor = null;
+                        mPipe.send("REQUESTS");
                     }
                     break;
+                case MSG_REQUEST:
+                    final PublisherRequest request = (PublisherRequest) msg.obj;
+                    if (mActor != null) {
+                        mPipe.send("REQUEST", ZMQ.SNDMORE);
+                        mPipe.send(Long.toString(request.getId()));
+                    } else if (mPendingRequests.remove(request.getId()) != null) {
+                        request.complete(PublisherRequest.State.CANCELLED);
+                    }
+                    break;
+                case MSG_EXPIRE:
+                    final PublisherRequest expiring = (PublisherRequest) msg.obj;
+                    if (expiring.completeIfExpired()) {
+                        mPendingRequests.remove(expiring.getId());
+                    } else {
+                        sendMessageDelayed(obtainMessage(MSG_EXPIRE, expiring), expiring.getRemainingMillis());
+                    }
+                    break;
+                case MSG_STOP:
+                    stopActor();
+                    break;
             }
         }
     }
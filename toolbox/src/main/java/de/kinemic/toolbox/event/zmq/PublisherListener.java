@@ -16,12 +16,24 @@
 
 package de.kinemic.toolbox.event.zmq;
 
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.json.JSONException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.kinemic.toolbox.event.MouseMoveAccumulator;
 import de.kinemic.toolbox.event.PublisherEvent;
 import de.kinemic.toolbox.event.PublisherLog;
+import de.kinemic.toolbox.event.metrics.LatencyTracker;
 
 /**
  * This class can be used to receive Publisher events over the network (also locally).
@@ -32,6 +44,271 @@ import de.kinemic.toolbox.event.PublisherLog;
 public abstract class PublisherListener extends PublisherJsonListener {
     private static final String TAG = PublisherListener.class.getSimpleName();
 
+    // set before start, see setEventQueue and setMotionQueue
+    private EventQueue mQueue;
+    private EventQueue mMotionQueue;
+    private Looper mDeliveryLooper;
+
+    // accessed from main thread (or calling thread)
+    private HandlerThread mDeliveryThread;
+
+    // read from the actor thread
+    private volatile Handler mDeliveryHandler;
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    private volatile boolean mMouseConflation;
+    private volatile LatencyTracker mLatencyTracker;
+    private final AtomicLong mMergedMoves = new AtomicLong();
+
+    // accessed from the receiving thread
+    private final MouseMoveAccumulator mBatchMoves = new MouseMoveAccumulator();
+    private final ArrayList<PublisherEvent> mConflatedBatch = new ArrayList<>();
+
+    // accessed from the delivery thread
+    private final ArrayList<PublisherEvent> mDrained = new ArrayList<>();
+    private final MouseMoveAccumulator mDrainedMoves = new MouseMoveAccumulator();
+    private final ArrayList<PublisherEvent> mConflatedDrained = new ArrayList<>();
+
+    /**
+     * Deliver events through a queue instead of directly on the receiving thread.
+     * The receiving thread only adds the events to the queue, {@link #handleEvents(List)} is called
+     * on the looper's thread with all events queued since the last call. A slow consumer then
+     * does not stall the socket and the queue's {@link EventQueue.Policy} decides what to drop.
+     * Has to be called before {@link #start()}.
+     * Moves passed to a {@link de.kinemic.toolbox.event.MouseEventListener} are not queued.
+     * @param queue the queue or null to deliver events directly on the receiving thread (default)
+     * @param looper looper to deliver events on, i.e. the main looper,
+     *               or null to deliver on a thread owned by this listener
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setEventQueue(@Nullable EventQueue queue, @Nullable Looper looper) {
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        mQueue = queue;
+        mDeliveryLooper = looper;
+    }
+
+    /**
+     * Deliver air mouse events through their own queue (motion lane), separate from all other events
+     * (control lane, the queue set with {@link #setEventQueue(EventQueue, Looper)}).
+     * Control events are always delivered before motion events which are queued at the same time,
+     * so a flood of moves does not delay gestures or activations. The order of events within a lane
+     * is kept, but not across lanes. Air mouse toggles stay in the motion lane, in order with the moves.
+     * Only used together with an event queue. Has to be called before {@link #start()}.
+     * @param queue the motion queue or null to deliver all events through the event queue (default)
+     * @throws IllegalStateException if the listener is started
+     */
+    public void setMotionQueue(@Nullable EventQueue queue) {
+        if (isStarted()) throw new IllegalStateException("Listener must not be started");
+        mMotionQueue = queue;
+    }
+
+    /**
+     * The queue used for the motion lane, see {@link #setMotionQueue(EventQueue)}.
+     * Use it together with {@link #getEventQueue()} to compare the per lane latency.
+     * @return the queue or null if there is only one lane
+     */
+    public @Nullable EventQueue getMotionQueue() {
+        return mMotionQueue;
+    }
+
+    /**
+     * The queue used for delivery, see {@link #setEventQueue(EventQueue, Looper)}.
+     * Use it to read the queue depth and drop counts.
+     * @return the queue or null if events are delivered directly
+     */
+    public @Nullable EventQueue getEventQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Merge air mouse moves which are delivered together.
+     * If the consumer falls behind, all moves queued (or received in one burst) between two other
+     * events are delivered as one move with the summed up deltas and the latest palmVertical.
+     * The cursor ends up at the same position, but the latency stays bounded no matter how many
+     * moves piled up. Moves are never merged across toggles, gestures or any other event.
+     * Moves passed to a {@link de.kinemic.toolbox.event.MouseEventListener} are not merged.
+     * @param conflation true to merge moves, false to deliver every move (default)
+     */
+    public void setMouseConflation(boolean conflation) {
+        mMouseConflation = conflation;
+    }
+
+    /**
+     * Whether air mouse moves are merged, see {@link #setMouseConflation(boolean)}.
+     * @return true if moves are merged
+     */
+    public boolean isMouseConflation() {
+        return mMouseConflation;
+    }
+
+    /**
+     * Number of air mouse moves which were merged into another move.
+     * @return merged moves since the listener was created
+     */
+    public long getMergedMoveCount() {
+        return mMergedMoves.get();
+    }
+
+    /**
+     * Record the latency of every event from socket receive to {@link #handleEvents(List)} return.
+     * Events are stamped with {@link System#nanoTime()} while a tracker is set, replayed events
+     * with the clock of the {@link CaptureReplay}.
+     * Can be changed at any time.
+     * @param tracker the tracker or null to disable tracking (default)
+     */
+    public void setLatencyTracker(@Nullable LatencyTracker tracker) {
+        mLatencyTracker = tracker;
+        setTimestamps(tracker != null);
+    }
+
+    /**
+     * The tracker set with {@link #setLatencyTracker(LatencyTracker)}.
+     * @return the tracker or null if latencies are not tracked
+     */
+    public @Nullable LatencyTracker getLatencyTracker() {
+        return mLatencyTracker;
+    }
+
+    @Override
+    public void start(String ip) {
+        if (!isStarted()) startDelivery();
+        super.start(ip);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        stopDelivery();
+    }
+
+    /* sets up the delivery looper, called before the actor is started */
+    void startDelivery() {
+        if (mQueue == null) return;
+        // events of the last run and a drain task posted to a dead looper must not survive a restart
+        mDrainScheduled.set(false);
+        mQueue.clear();
+        mQueue.setMetrics(getMetrics());
+        if (mMotionQueue != null) {
+            mMotionQueue.clear();
+            mMotionQueue.setMetrics(getMetrics());
+        }
+        Looper looper = mDeliveryLooper;
+        if (looper == null) {
+            mDeliveryThread = new HandlerThread("EventListenerDelivery");
+            mDeliveryThread.start();
+            looper = mDeliveryThread.getLooper();
+        }
+        mDeliveryHandler = new Handler(looper);
+    }
+
+    /* tears down the delivery looper, the actor may still be receiving */
+    void stopDelivery() {
+        // the actor stops asynchronously, it must not post to the looper quit below
+        mDeliveryHandler = null;
+        if (mDeliveryThread != null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                mDeliveryThread.quitSafely();
+            } else {
+                mDeliveryThread.quit();
+            }
+            mDeliveryThread = null;
+        }
+    }
+
+    /* posts to the delivery looper, false if the looper is quitting */
+    boolean post(Handler handler, Runnable task) {
+        return handler.post(task);
+    }
+
+    @Override
+    void dispatchEvents(List<PublisherEvent> events) {
+        final EventQueue queue = mQueue;
+        if (queue == null) {
+            deliver(events, mBatchMoves, mConflatedBatch);
+            return;
+        }
+        final Handler handler = mDeliveryHandler;
+        if (handler == null) {
+            // stopping, nobody would drain the queue
+            return;
+        }
+        final EventQueue motionQueue = mMotionQueue;
+        for (int i = 0; i < events.size(); ++i) {
+            final PublisherEvent event = events.get(i);
+            if (motionQueue != null && event.type == PublisherEvent.Type.MouseEvent) {
+                motionQueue.offer(event);
+            } else {
+                queue.offer(event);
+            }
+        }
+        if (mDrainScheduled.compareAndSet(false, true) && !post(handler, mDrainTask)) {
+            mDrainScheduled.set(false);
+        }
+    }
+
+    /* runs on the delivery looper */
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            mDrainScheduled.set(false);
+            final EventQueue queue = mQueue;
+            if (queue == null) return;
+            final EventQueue motionQueue = mMotionQueue;
+
+            // control lane first, then the motion lane
+            drain(queue);
+            if (motionQueue != null) drain(motionQueue);
+
+            if ((!queue.isEmpty() || (motionQueue != null && !motionQueue.isEmpty()))
+                    && mDrainScheduled.compareAndSet(false, true)) {
+                final Handler handler = mDeliveryHandler;
+                if (handler == null || !post(handler, this)) mDrainScheduled.set(false);
+            }
+        }
+    };
+
+    /* called from the delivery looper */
+    private void drain(EventQueue queue) {
+        // at most one queue length per run, so a steady stream does not block the looper
+        final int max = queue.capacity();
+        PublisherEvent event;
+        while (mDrained.size() < max && (event = queue.poll()) != null) {
+            mDrained.add(event);
+        }
+        if (!mDrained.isEmpty()) {
+            try {
+                deliver(mDrained, mDrainedMoves, mConflatedDrained);
+            } finally {
+                mDrained.clear();
+            }
+        }
+    }
+
+    private void deliver(List<PublisherEvent> events, MouseMoveAccumulator moves, List<PublisherEvent> conflated) {
+        if (!mMouseConflation || events.size() < 2) {
+            handle(events);
+            return;
+        }
+        final int merged = moves.conflate(events, conflated);
+        if (merged > 0) mMergedMoves.addAndGet(merged);
+        try {
+            handle(merged > 0 ? conflated : events);
+        } finally {
+            conflated.clear();
+        }
+    }
+
+    private void handle(List<PublisherEvent> events) {
+        final LatencyTracker tracker = mLatencyTracker;
+        if (tracker == null) {
+            handleEvents(events);
+            return;
+        }
+        final long start = nanoTime();
+        handleEvents(events);
+        tracker.recordHandled(events, start, nanoTime());
+    }
+
     /**
      * Called for every received log message.
      * @param log the received {@link PublisherLog}
@@ -40,8 +317,10 @@ public abstract class PublisherListener extends PublisherJsonListener {
 
     /**
      * Called for every received event.
+     * The event is parsed once on the receiving thread and passed on as is.
      * @param base the received {@link PublisherEvent}
      */
+    @Override
     protected abstract void handleEvent(PublisherEvent base);
 
     @Override
@@ -52,13 +331,4 @@ public abstract class PublisherListener extends PublisherJsonListener {
             Log.w(TAG, "Could not parse json event: " + json, e);
         }
     }
-
-    @Override
-    protected final void handleEvent(String type, String json) {
-        try {
-            handleEvent(PublisherEvent.fromJson(json));
-        } catch (JSONException e) {
-            Log.w(TAG, "Could not parse json event: " + json, e);
-        }
-    }
 }
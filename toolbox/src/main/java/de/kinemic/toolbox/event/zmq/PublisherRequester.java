@@ -21,20 +21,99 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.support.annotation.NonNull;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
-import org.zeromq.ZSocket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is used to send requests back to the publisher.
  * Currently there is only one request, which resets the orientation reference for the airmouse feature.
+ *
+ * A requester created with {@link #PublisherRequester(PublisherListener)} sends its requests through
+ * the listener's receiving thread instead of an own thread and socket context.
  */
 public class PublisherRequester {
 
+    /** Default for {@link #setRequestTimeout(long)}. */
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 1000;
+    /** Default for {@link #setCoalesceWindow(long)}. */
+    public static final long DEFAULT_COALESCE_WINDOW_MILLIS = 100;
+
+    private static final String TYPE_ORIENTATION_RESET = "OrientationReset";
+    /* requests are serialized once, they have no parameters */
+    private static final String ORIENTATION_RESET = createOrientationReset();
+
+    private static final AtomicLong sNextId = new AtomicLong();
+
     private HandlerThread mIOThread;
-    private IOHandler mIOHandler;
+    private volatile IOHandler mIOHandler;
+
+    private volatile long mTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+    private TransportConfig mTransport = TransportConfig.DEFAULT;
+    private volatile long mCoalesceMillis = DEFAULT_COALESCE_WINDOW_MILLIS;
+    // guarded by this
+    private PublisherRequest mLastReset;
+
+    // set if requests are sent through the listener
+    private final PublisherListener mListener;
+
+    /**
+     * Create a requester with an own thread.
+     */
+    public PublisherRequester() {
+        mListener = null;
+    }
+
+    /**
+     * Create a requester which shares the thread and connection context of a listener.
+     * Requests are only sent while the listener is running, {@link #start()} and {@link #stop()}
+     * have no effect.
+     * @param listener the listener for the same publisher
+     */
+    public PublisherRequester(@NonNull PublisherListener listener) {
+        mListener = listener;
+        listener.enableRequests();
+    }
+
+    /**
+     * Set the endpoint and socket options used to connect to the Publisher.
+     * Has to be called before {@link #start()}, has no effect if requests are sent through a listener.
+     * Default is {@link TransportConfig#DEFAULT}.
+     * @param config the transport configuration
+     */
+    public void setTransportConfig(@NonNull TransportConfig config) {
+        if (config == null) throw new IllegalArgumentException("config must not be null");
+        mTransport = config;
+    }
+
+    /**
+     * Set how long a request may wait to be sent, i.e. while the connection is starting.
+     * Requests which are not sent in time complete with {@link PublisherRequest.State#TIMED_OUT}.
+     * Default is {@link #DEFAULT_REQUEST_TIMEOUT_MILLIS}.
+     * @param millis timeout in milliseconds
+     */
+    public void setRequestTimeout(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("timeout must not be negative");
+        mTimeoutMillis = millis;
+    }
+
+    /**
+     * Set the time in which duplicate orientation resets are coalesced: a reset requested within
+     * this time after the previous one (or while the previous one is not sent yet) is not sent
+     * again, the previous request is returned instead.
+     * Default is {@link #DEFAULT_COALESCE_WINDOW_MILLIS}, 0 to send every request.
+     * @param millis coalesce window in milliseconds
+     */
+    public void setCoalesceWindow(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("window must not be negative");
+        mCoalesceMillis = millis;
+    }
 
     /**
      * Start the requester for a publisher at 'localhost'.
@@ -50,10 +129,10 @@ public class PublisherRequester {
      * @param ip the ip address of the publisher like '127.0.0.1'
      */
     public void start(String ip) {
-        if (mIOThread == null) {
+        if (mListener == null && mIOThread == null) {
             mIOThread = new HandlerThread("requesterIO");
             mIOThread.start();
-            mIOHandler = new IOHandler(ip, mIOThread.getLooper());
+            mIOHandler = new IOHandler(ip, mTransport, mIOThread.getLooper());
             mIOHandler.obtainMessage(IOHandler.MSG_START).sendToTarget();
         }
     }
@@ -82,24 +161,85 @@ public class PublisherRequester {
      * {@link de.kinemic.toolbox.event.PublisherEvent.MouseEvent}.
      */
     public void requestOrientationReset() {
-        if (mIOThread != null) {
-            mIOHandler.obtainMessage(IOHandler.MSG_REQUEST_ORIENTATION).sendToTarget();
+        requestOrientationResetAsync();
+    }
+
+    /**
+     * Request a orientation reset, see {@link #requestOrientationReset()}.
+     * Does not block, the returned request completes once it was sent.
+     * Duplicate resets are coalesced, see {@link #setCoalesceWindow(long)}.
+     * @return the request
+     */
+    public @NonNull PublisherRequest requestOrientationResetAsync() {
+        final PublisherRequest request;
+        synchronized (this) {
+            final PublisherRequest last = mLastReset;
+            if (last != null && coalesces(last)) return last;
+            request = new PublisherRequest(sNextId.incrementAndGet(), TYPE_ORIENTATION_RESET,
+                    ORIENTATION_RESET, mTimeoutMillis);
+            mLastReset = request;
+        }
+        send(request);
+        return request;
+    }
+
+    /* guarded by this */
+    private boolean coalesces(PublisherRequest last) {
+        final long window = mCoalesceMillis;
+        if (window == 0) return false;
+        switch (last.getState()) {
+            case PENDING:
+                // a request past its deadline times out instead of absorbing new requests
+                return !last.completeIfExpired();
+            case SENT:
+                return System.nanoTime() - last.createdNanos() < TimeUnit.MILLISECONDS.toNanos(window);
+            default:
+                return false;
+        }
+    }
+
+    private void send(PublisherRequest request) {
+        if (mListener != null) {
+            mListener.sendRequest(request);
+            return;
+        }
+        final IOHandler handler = mIOHandler;
+        if (handler == null || !handler.sendMessage(handler.obtainMessage(IOHandler.MSG_REQUEST, request))) {
+            request.complete(PublisherRequest.State.CANCELLED);
+            return;
+        }
+        // times out even if the request is not handled until its deadline
+        handler.sendMessageDelayed(handler.obtainMessage(IOHandler.MSG_EXPIRE, request), request.getRemainingMillis());
+    }
+
+    private static String createOrientationReset() {
+        try {
+            JSONObject request = new JSONObject();
+            request.put("type", TYPE_ORIENTATION_RESET);
+            request.put("payload", null);
+            return request.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
         }
     }
 
     private static class IOHandler extends Handler {
 
-        private static final int MSG_REQUEST_ORIENTATION = 1;
+        private static final int MSG_REQUEST = 1;
         private static final int MSG_TERM = 2;
         private static final int MSG_START = 3;
+        private static final int MSG_EXPIRE = 4;
 
         private Handler mHandler;
-        private ZSocket mPublisher;
+        private ZContext mContext;
+        private ZMQ.Socket mPublisher;
         private final String mIP;
+        private final TransportConfig mConfig;
 
-        IOHandler(String ip, Looper looper) {
+        IOHandler(String ip, TransportConfig config, Looper looper) {
             super(looper);
             mIP = ip;
+            mConfig = config;
         }
 
         @Override
@@ -107,21 +247,28 @@ public class PublisherRequester {
             switch (msg.what) {
 
                 case MSG_START:
-                    mPublisher = new ZSocket(ZMQ.PUB);
-                    mPublisher.connect("tcp://" + mIP + ":9998");
+                    mContext = mConfig.createContext();
+                    mPublisher = mContext.createSocket(ZMQ.PUB);
+                    mConfig.apply(mPublisher);
+                    mPublisher.connect(mConfig.getRequestEndpoint(mIP));
+                    break;
+                case MSG_REQUEST:
+                    final PublisherRequest request = (PublisherRequest) msg.obj;
+                    if (!request.completeIfExpired()) {
+                        final boolean sent = mPublisher != null && mPublisher.send(request.json(), ZMQ.DONTWAIT);
+                        request.complete(sent ? PublisherRequest.State.SENT : PublisherRequest.State.CANCELLED);
+                    }
                     break;
-                case MSG_REQUEST_ORIENTATION:
-                    try {
-                        JSONObject request = new JSONObject();
-                        request.put("type", "OrientationReset");
-                        request.put("payload", null);
-                        mPublisher.sendStringUtf8(request.toString());
-                    } catch (JSONException e) {
-                        e.printStackTrace();
+                case MSG_EXPIRE:
+                    final PublisherRequest expiring = (PublisherRequest) msg.obj;
+                    if (!expiring.completeIfExpired()) {
+                        sendMessageDelayed(obtainMessage(MSG_EXPIRE, expiring), expiring.getRemainingMillis());
                     }
                     break;
                 case MSG_TERM:
-                    mPublisher.close();
+                    mContext.destroy();
+                    mContext = null;
+                    mPublisher = null;
                     break;
             }
         }
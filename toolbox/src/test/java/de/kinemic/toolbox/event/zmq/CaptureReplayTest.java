@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.PublisherLog;
+import de.kinemic.toolbox.event.metrics.LatencyTracker;
+
+import static org.junit.Assert.*;
+import static org.zeromq.ZSocket.UTF8;
+
+public class CaptureReplayTest {
+    private static final long MILLI = 1000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final String ACTIVATION = "{\"type\":\"Activation\",\"parameters\":{\"active\":true}}";
+    private static final String GESTURE = "{\"type\":\"Gesture\",\"parameters\":{\"name\":\"Swipe R\"}}";
+
+    private File record(int count) throws Exception {
+        final File file = mFolder.newFile("session.kcap");
+        final CaptureWriter writer = new CaptureWriter(file);
+        final byte[] topic = "Gesture".getBytes(UTF8);
+        final byte[] gesture = GESTURE.getBytes(UTF8);
+        final byte[] activation = ACTIVATION.getBytes(UTF8);
+        for (int i = 0; i < count; ++i) {
+            if (i % 2 == 0) {
+                writer.writeEvent(1000 * MILLI + i * 10 * MILLI, topic, topic.length, gesture, gesture.length);
+            } else {
+                writer.writeEvent(1000 * MILLI + i * 10 * MILLI, null, 0, activation, activation.length);
+            }
+        }
+        writer.writeLog(1000 * MILLI + count * 10 * MILLI, "info", "{\"message\":\"done\"}");
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void replayWithVirtualClock() throws Exception {
+        final CaptureReader reader = new CaptureReader(record(10));
+        final List<PublisherEvent> events = new ArrayList<>();
+        final List<Long> stamps = new ArrayList<>();
+        final PublisherListener listener = new PublisherListener() {
+            @Override
+            protected void handleLog(PublisherLog log) {
+            }
+
+            @Override
+            protected void handleEvent(PublisherEvent base) {
+                events.add(base);
+                stamps.add(base.getReceivedNanos());
+            }
+        };
+        listener.setEventTypes("Activation");
+        listener.setTimestamps(true);
+
+        final VirtualClock clock = new VirtualClock(5 * MILLI);
+        final CaptureReplay replay = new CaptureReplay(reader, listener);
+        replay.setClock(clock);
+        replay.run();
+
+        assertEquals(11, replay.getReplayedCount());
+        // only the subscribed activations
+        assertEquals(5, events.size());
+        for (int i = 0; i < events.size(); ++i) {
+            assertEquals(PublisherEvent.Type.Activation, events.get(i).type);
+            assertEquals(5 * MILLI + (2 * i + 1) * 10 * MILLI, (long) stamps.get(i));
+        }
+        assertEquals(5 * MILLI + 100 * MILLI, clock.nanoTime());
+        assertEquals(10, listener.getReceivedMessageCount());
+        reader.close();
+    }
+
+    @Test
+    public void latenciesInClockTime() throws Exception {
+        final CaptureReader reader = new CaptureReader(record(10));
+        final PublisherListener listener = new PublisherListener() {
+            @Override
+            protected void handleLog(PublisherLog log) {
+            }
+
+            @Override
+            protected void handleEvent(PublisherEvent base) {
+            }
+        };
+        final LatencyTracker tracker = new LatencyTracker();
+        listener.setLatencyTracker(tracker);
+
+        // starts at 0, the first event is stamped anyway
+        final CaptureReplay replay = new CaptureReplay(reader, listener);
+        replay.setClock(new VirtualClock());
+        replay.run();
+
+        assertEquals(5, tracker.getTotal(PublisherEvent.Type.Gesture).getCount());
+        assertEquals(5, tracker.getTotal(PublisherEvent.Type.Activation).getCount());
+        // the virtual clock does not advance while an event is decoded or handled
+        for (LatencyTracker.Stage stage : LatencyTracker.Stage.values()) {
+            assertEquals(stage.name(), 0, tracker.getStage(stage).getMaxNanos());
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+import org.zeromq.ZContext;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+
+import static org.junit.Assert.*;
+
+public class PublisherJsonListenerTest {
+
+    private static void await(AtomicInteger counter) throws InterruptedException {
+        for (int i = 0; i < 200 && counter.get() == 0; ++i) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static PublisherJsonListener listener() {
+        return new PublisherJsonListener() {
+            @Override
+            protected void handleLog(String level, String json) {
+            }
+
+            @Override
+            protected void handleEvent(PublisherEvent event) {
+            }
+        };
+    }
+
+    @Test
+    public void sourcesRequireEventPort() {
+        final TransportConfig endpoint = new TransportConfig.Builder().eventEndpoint("inproc://events").build();
+        final PublisherJsonListener explicit = listener();
+        explicit.setTransportConfig(endpoint);
+        try {
+            explicit.addSource(new PublisherSource("left", "192.168.0.10"));
+            fail("source added with an explicit event endpoint");
+        } catch (IllegalStateException expected) {
+        }
+
+        final PublisherJsonListener sources = listener();
+        sources.addSource(new PublisherSource("left", "192.168.0.10"));
+        sources.setTransportConfig(new TransportConfig.Builder().eventPort(9000).build());
+        try {
+            sources.setTransportConfig(endpoint);
+            fail("explicit event endpoint set with sources");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, sources.getSources().length);
+    }
+
+    @Test
+    public void restart() throws Exception {
+        final ZContext context = new ZContext();
+        final TransportConfig config = new TransportConfig.Builder()
+                .eventEndpoint("inproc://events")
+                .logEndpoint("inproc://log")
+                .requestEndpoint("inproc://requests")
+                .context(context)
+                .build();
+        final SyntheticPublisher publisher = new SyntheticPublisher(config);
+        publisher.setTopicFrames(true);
+        publisher.setRate(PublisherEvent.Type.Gesture, 1000, 1);
+        publisher.setLogRate(1000);
+
+        final AtomicInteger events = new AtomicInteger();
+        final AtomicInteger logs = new AtomicInteger();
+        final PublisherJsonListener listener = new PublisherJsonListener() {
+            @Override
+            protected void handleLog(String level, String json) {
+                logs.incrementAndGet();
+            }
+
+            @Override
+            protected void handleEvent(PublisherEvent event) {
+                events.incrementAndGet();
+            }
+
+            @Override
+            protected void handleEvents(List<PublisherEvent> batch) {
+                events.addAndGet(batch.size());
+            }
+        };
+        listener.setTransportConfig(config);
+        listener.setLogLevels("info");
+
+        publisher.start();
+        try {
+            for (int run = 0; run < 2; ++run) {
+                events.set(0);
+                logs.set(0);
+                listener.startActor(null);
+                await(events);
+                await(logs);
+                listener.stopActor();
+                // the second run has to connect and subscribe again
+                assertTrue("no events in run " + run, events.get() > 0);
+                assertTrue("no logs in run " + run, logs.get() > 0);
+            }
+        } finally {
+            publisher.stop();
+            context.destroy();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.kinemic.toolbox.event.zmq;
+
+import android.os.Handler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.kinemic.toolbox.event.PublisherEvent;
+import de.kinemic.toolbox.event.PublisherLog;
+
+import static org.junit.Assert.*;
+
+public class PublisherListenerTest {
+
+    private static PublisherEvent gesture(String name) throws Exception {
+        return PublisherEvent.fromJson("{\"type\":\"Gesture\",\"parameters\":{\"name\":\"" + name + "\"}}");
+    }
+
+    /* runs posted tasks in place, or rejects them like a quitting looper */
+    private static class TestListener extends PublisherListener {
+        final List<String> delivered = new ArrayList<>();
+        boolean looperAlive;
+        int posts;
+
+        @Override
+        boolean post(Handler handler, Runnable task) {
+            posts++;
+            if (!looperAlive) return false;
+            task.run();
+            return true;
+        }
+
+        @Override
+        protected void handleLog(PublisherLog log) {
+        }
+
+        @Override
+        protected void handleEvent(PublisherEvent base) {
+        }
+
+        @Override
+        protected void handleEvents(List<PublisherEvent> events) {
+            try {
+                for (PublisherEvent event : events) delivered.add(event.asGesture().name);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Test
+    public void restartDelivery() throws Exception {
+        final TestListener listener = new TestListener();
+        final EventQueue queue = new EventQueue(8, EventQueue.Policy.DROP_NEWEST);
+        listener.setEventQueue(queue, null);
+
+        // the looper of the first run is gone before the actor stopped
+        listener.startDelivery();
+        listener.dispatchEvents(Collections.singletonList(gesture("A")));
+        listener.dispatchEvents(Collections.singletonList(gesture("B")));
+        assertEquals("failed post did not reset the drain flag", 2, listener.posts);
+        listener.stopDelivery();
+        listener.dispatchEvents(Collections.singletonList(gesture("C")));
+        assertEquals(2, listener.posts);
+
+        listener.looperAlive = true;
+        listener.startDelivery();
+        listener.dispatchEvents(Collections.singletonList(gesture("D")));
+        assertEquals(Collections.singletonList("D"), listener.delivered);
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 Kinemic GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.kinemic.toolbox.event.zmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PublisherRequesterTest {
+
+    @Test
+    public void notRunning() {
+        PublisherRequester requester = new PublisherRequester();
+        PublisherRequest first = requester.requestOrientationResetAsync();
+        assertEquals(PublisherRequest.State.CANCELLED, first.getState());
+        // failed requests are not coalesced
+        PublisherRequest second = requester.requestOrientationResetAsync();
+        assertNotSame(first, second);
+        assertTrue(second.getId() > first.getId());
+    }
+}